@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Canvas stand-in that counts what it is asked to draw instead of rasterizing it, so that
+ * benchmarks measure the drawable rather than the renderer.
+ */
+class RecordingCanvas extends Canvas {
+
+    int mDrawCount;
+
+    int mMatrixCount;
+
+    int mSaveCount;
+
+    // reported as the clip bounds, unbounded unless a benchmark clips
+    final Rect mClip = new Rect(UNCLIPPED);
+
+    private static final Rect UNCLIPPED = new Rect(-1000000, -1000000, 1000000, 1000000);
+
+    private int mDepth = 1;
+
+    void reset() {
+        mDrawCount = 0;
+        mMatrixCount = 0;
+        mSaveCount = 0;
+        mDepth = 1;
+        mClip.set(UNCLIPPED);
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawRect(Rect rect, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter,
+            Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        mDrawCount++;
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        mMatrixCount++;
+    }
+
+    @Override
+    public void scale(float sx, float sy) {
+        mMatrixCount++;
+    }
+
+    @Override
+    public void rotate(float degrees) {
+        mMatrixCount++;
+    }
+
+    @Override
+    public boolean getClipBounds(Rect bounds) {
+        bounds.set(mClip);
+        return !mClip.isEmpty();
+    }
+
+    @Override
+    public int save() {
+        mSaveCount++;
+        return mDepth++;
+    }
+
+    @Override
+    public void restore() {
+        mDepth--;
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        mDepth = saveCount;
+    }
+
+    @Override
+    public int getSaveCount() {
+        return mDepth;
+    }
+}
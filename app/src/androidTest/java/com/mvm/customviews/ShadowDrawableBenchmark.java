@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Micro benchmarks of the build and draw paths of {@link RoundRectDrawableWithShadow}, across
+ * shapes, corner radii, sizes and rendering modes. Drawing goes to a {@link RecordingCanvas}, so
+ * only the drawable's own work is timed.
+ * <p>
+ * Run with {@code ./gradlew connectedAndroidTest} and read the results from logcat, tag
+ * {@value #TAG}: time, allocations, canvas calls and rebuilds per op. Every case also bounds
+ * its canvas draws, rebuilds and allocations per op, so a regression fails the run. Times are
+ * only logged, they depend too much on the device.
+ */
+public class ShadowDrawableBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ShadowBenchmark";
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+
+    private static final float SHADOW_SIZE = 8;
+    private static final float MAX_SHADOW_SIZE = 16;
+
+    private static final float[] RADII = {2, 8, 24};
+
+    private static final int[][] SIZES = {{160, 90}, {1080, 480}};
+
+    // canvas draws of one shadow layer: four corners and four edges
+    private static final int SHADOW_DRAWS = 8;
+
+    // canvas draws of the card body: four arcs and up to seven rects with the arc helper
+    private static final int BODY_DRAWS = 11;
+
+    private static final int CARD_DRAWS = SHADOW_DRAWS + BODY_DRAWS;
+
+    // canvas draws of a card at low detail, each edge drawn in two solid bands
+    private static final int LOW_DETAIL_CARD_DRAWS = CARD_DRAWS + 4;
+
+    // canvas draws of a nine-patch shadow
+    private static final int NINE_PATCH_DRAWS = 9;
+
+    private final RecordingCanvas mCanvas = new RecordingCanvas();
+
+    private final Rect mPadding = new Rect();
+
+    /**
+     * A card shape: corner radii as multiples of the benchmarked radius, and the shadow edges.
+     */
+    private static final class Shape {
+        final String mName;
+        final float[] mRadii;
+        final int mEdges;
+
+        Shape(String name, float topLeft, float topRight, float bottomRight, float bottomLeft,
+                int edges) {
+            mName = name;
+            mRadii = new float[]{topLeft, topRight, bottomRight, bottomLeft};
+            mEdges = edges;
+        }
+    }
+
+    private static final int SIDES = RoundRectDrawableWithShadow.EDGE_LEFT
+            | RoundRectDrawableWithShadow.EDGE_RIGHT;
+
+    // the former ALL, TOP, BOTTOM and NONE types, then shapes only the radii can express
+    private static final Shape[] SHAPES = {
+            new Shape("all", 1, 1, 1, 1, RoundRectDrawableWithShadow.EDGE_ALL),
+            new Shape("top", 1, 1, 0, 0, SIDES | RoundRectDrawableWithShadow.EDGE_TOP),
+            new Shape("bottom", 0, 0, 1, 1, SIDES | RoundRectDrawableWithShadow.EDGE_BOTTOM),
+            new Shape("none", 0, 0, 0, 0, SIDES),
+            new Shape("mixed", 1, .5f, 0, 2, RoundRectDrawableWithShadow.EDGE_ALL),
+            new Shape("sides", 1, 1, 1, 1, SIDES),
+    };
+
+    private RoundRectDrawableWithShadow createDrawable(Shape shape, float radius, int[] size) {
+        RoundRectDrawableWithShadow drawable = new RoundRectDrawableWithShadow(
+                getContext().getResources(), Color.WHITE, 0, SHADOW_SIZE, MAX_SHADOW_SIZE);
+        drawable.setCornerRadii(shape.mRadii[0] * radius, shape.mRadii[1] * radius,
+                shape.mRadii[2] * radius, shape.mRadii[3] * radius);
+        drawable.setShadowEdges(shape.mEdges);
+        drawable.setBounds(0, 0, size[0], size[1]);
+        // build once, so steady state ops don't pay for the first build
+        drawable.draw(mCanvas);
+        return drawable;
+    }
+
+    private static String config(Shape shape, float radius, int[] size) {
+        return String.format(Locale.US, "%s r=%.0f %dx%d", shape.mName, radius, size[0],
+                size[1]);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ShadowStats.setEnabled(false);
+        super.tearDown();
+    }
+
+    /**
+     * Counts of one benchmarked case over ITERATIONS ops.
+     */
+    private static final class Result {
+        final String mCase;
+        final long mDraws;
+        final long mRebuilds;
+        final long mAllocations;
+
+        Result(String name, String config, long draws, long rebuilds, long allocations) {
+            mCase = name + " " + config + ": ";
+            mDraws = draws;
+            mRebuilds = rebuilds;
+            mAllocations = allocations;
+        }
+
+        /**
+         * Fails if the case exceeded one of the given bounds per op.
+         */
+        void assertAtMost(int maxDraws, int maxRebuilds, int maxAllocations) {
+            assertTrue(mCase + mDraws + " draws", mDraws <= (long) maxDraws * ITERATIONS);
+            assertTrue(mCase + mRebuilds + " rebuilds",
+                    mRebuilds <= (long) maxRebuilds * ITERATIONS);
+            assertTrue(mCase + mAllocations + " allocations",
+                    mAllocations <= (long) maxAllocations * ITERATIONS);
+        }
+    }
+
+    /**
+     * Runs the op ITERATIONS times for the time, again for the allocations, and once more with
+     * {@link ShadowStats} enabled for the canvas calls and rebuilds, and logs the averages.
+     */
+    private Result measure(String name, String config, Runnable op) {
+        for (int i = 0; i < WARMUP; i++) {
+            op.run();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run();
+        }
+        Debug.stopAllocCounting();
+        final int allocations = Debug.getThreadAllocCount();
+
+        ShadowStats.setEnabled(true);
+        ShadowStats.resetGlobal();
+        mCanvas.reset();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run();
+        }
+        ShadowStats.setEnabled(false);
+        final long rebuilds = ShadowStats.getGlobal().getRebuilds();
+
+        Log.i(TAG, String.format(Locale.US,
+                "%-18s %-24s %10.0f ns/op %7.2f allocs/op %6.1f draws/op %6.1f matrix/op"
+                        + " %5.1f saves/op %5.2f rebuilds/op",
+                name, config, elapsed / (double) ITERATIONS, allocations / (float) ITERATIONS,
+                mCanvas.mDrawCount / (float) ITERATIONS,
+                mCanvas.mMatrixCount / (float) ITERATIONS,
+                mCanvas.mSaveCount / (float) ITERATIONS, rebuilds / (float) ITERATIONS));
+        return new Result(name, config, mCanvas.mDrawCount, rebuilds, allocations);
+    }
+
+    /**
+     * Steady state draw: nothing changed since the last draw.
+     */
+    public void testDraw() {
+        for (Shape shape : SHAPES) {
+            for (float radius : RADII) {
+                for (int[] size : SIZES) {
+                    final RoundRectDrawableWithShadow drawable =
+                            createDrawable(shape, radius, size);
+                    measure("draw", config(shape, radius, size), new Runnable() {
+                        @Override
+                        public void run() {
+                            drawable.draw(mCanvas);
+                        }
+                    }).assertAtMost(CARD_DRAWS, 0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resizing and drawing: the card and shadow geometry are rebuilt on every op.
+     */
+    public void testRebuild() {
+        for (Shape shape : SHAPES) {
+            for (float radius : RADII) {
+                for (final int[] size : SIZES) {
+                    final RoundRectDrawableWithShadow drawable =
+                            createDrawable(shape, radius, size);
+                    measure("resize+draw", config(shape, radius, size), new Runnable() {
+                        int mFrame;
+
+                        @Override
+                        public void run() {
+                            // alternate between two widths
+                            drawable.setBounds(0, 0, size[0] + (mFrame++ & 1), size[1]);
+                            drawable.draw(mCanvas);
+                        }
+                    }).assertAtMost(CARD_DRAWS, 1, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilding directly, without drawing: the card and its shadow, then the shadow alone.
+     */
+    public void testBuildComponents() {
+        for (Shape shape : SHAPES) {
+            for (float radius : RADII) {
+                for (int[] size : SIZES) {
+                    final RoundRectDrawableWithShadow drawable =
+                            createDrawable(shape, radius, size);
+                    final Rect bounds = new Rect(drawable.getBounds());
+                    measure("buildComponents", config(shape, radius, size), new Runnable() {
+                        @Override
+                        public void run() {
+                            drawable.buildComponents(bounds,
+                                    RoundRectDrawableWithShadow.DIRTY_ALL);
+                        }
+                    }).assertAtMost(0, 1, 0);
+                    measure("buildShadowCorners", config(shape, radius, size), new Runnable() {
+                        @Override
+                        public void run() {
+                            drawable.buildShadowCorners(
+                                    RoundRectDrawableWithShadow.DIRTY_GEOMETRY);
+                        }
+                    }).assertAtMost(0, 0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moving without resizing, which offsets the built geometry instead of rebuilding it.
+     */
+    public void testMove() {
+        final Shape shape = SHAPES[0];
+        for (float radius : RADII) {
+            final int[] size = SIZES[0];
+            final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+            measure("move+draw", config(shape, radius, size), new Runnable() {
+                int mFrame;
+
+                @Override
+                public void run() {
+                    final int offset = mFrame++ & 1;
+                    drawable.setBounds(offset, 0, size[0] + offset, size[1]);
+                    drawable.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS, 0, 0);
+        }
+    }
+
+    /**
+     * Changing the shadow size and drawing, with the assets of both sizes cached.
+     */
+    public void testSetShadowSize() {
+        for (Shape shape : SHAPES) {
+            for (float radius : RADII) {
+                final int[] size = SIZES[0];
+                final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+                measure("setShadowSize", config(shape, radius, size), new Runnable() {
+                    int mFrame;
+
+                    @Override
+                    public void run() {
+                        drawable.setShadowSize((mFrame++ & 1) == 0 ? SHADOW_SIZE
+                                : SHADOW_SIZE + 2);
+                        drawable.draw(mCanvas);
+                    }
+                }).assertAtMost(CARD_DRAWS, 1, 0);
+            }
+        }
+    }
+
+    /**
+     * Drawing a tall card scrolled partly into view: only the top of the card and its shadow
+     * lie inside the clip.
+     */
+    public void testClippedDraw() {
+        final int[] size = {480, 2400};
+        for (Shape shape : SHAPES) {
+            final float radius = RADII[1];
+            final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+            measure("draw:clipped", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    mCanvas.mClip.set(0, 0, size[0], 300);
+                    drawable.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS - 3, 0, 0);
+        }
+    }
+
+    /**
+     * Steady state and resized draws of pills and circles, whose corners reach half of the
+     * shorter side.
+     */
+    public void testRoundDraw() {
+        final int[][] sizes = {{480, 96}, {96, 480}, {96, 96}};
+        final Shape shape = SHAPES[0];
+        final float radius = 96;
+        for (final int[] size : sizes) {
+            final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+            measure("draw:round", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    drawable.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS, 0, 0);
+            // ring assets depend on the card size, both sizes stay in the shared cache
+            measure("rebuild:round", config(shape, radius, size), new Runnable() {
+                private int mGrow;
+
+                @Override
+                public void run() {
+                    mGrow ^= 1;
+                    drawable.setBounds(0, 0, size[0] + mGrow, size[1] + mGrow);
+                    drawable.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS, 1, 0);
+        }
+    }
+
+    /**
+     * Pressing and releasing a card whose shadow size and color follow the drawable state.
+     */
+    public void testStateChange() {
+        final int[][] states = {{android.R.attr.state_pressed}, {}};
+        final int[] pressed = {android.R.attr.state_pressed};
+        final int[] released = {};
+        for (Shape shape : SHAPES) {
+            final float radius = RADII[1];
+            final int[] size = SIZES[0];
+            final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+            drawable.setStateShadows(states, new float[]{MAX_SHADOW_SIZE, SHADOW_SIZE},
+                    new int[]{Color.LTGRAY, Color.WHITE});
+            drawable.draw(mCanvas);
+            measure("setState", config(shape, radius, size), new Runnable() {
+                int mFrame;
+
+                @Override
+                public void run() {
+                    drawable.setState((mFrame++ & 1) == 0 ? pressed : released);
+                    drawable.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS, 0, 0);
+        }
+    }
+
+    /**
+     * Rebinding a recycled card to alternating items, one setter per property or one edit.
+     */
+    public void testBind() {
+        final Shape shape = SHAPES[0];
+        final int[] size = SIZES[0];
+        final RoundRectDrawableWithShadow setters = createDrawable(shape, RADII[1], size);
+        measure("bind:setters", config(shape, RADII[1], size), new Runnable() {
+            int mFrame;
+
+            @Override
+            public void run() {
+                final boolean odd = (mFrame++ & 1) != 0;
+                final float radius = odd ? RADII[1] : RADII[2];
+                setters.setCornerRadius(radius, radius);
+                setters.setShadowSize(odd ? SHADOW_SIZE : SHADOW_SIZE + 2);
+                setters.setColor(odd ? Color.WHITE : Color.LTGRAY);
+                setters.draw(mCanvas);
+            }
+        }).assertAtMost(CARD_DRAWS, 1, 0);
+
+        final RoundRectDrawableWithShadow edit = createDrawable(shape, RADII[1], size);
+        measure("bind:edit", config(shape, RADII[1], size), new Runnable() {
+            int mFrame;
+
+            @Override
+            public void run() {
+                final boolean odd = (mFrame++ & 1) != 0;
+                edit.edit()
+                        .cornerRadius(odd ? RADII[1] : RADII[2])
+                        .shadowSize(odd ? SHADOW_SIZE : SHADOW_SIZE + 2)
+                        .color(odd ? Color.WHITE : Color.LTGRAY)
+                        .apply();
+                edit.draw(mCanvas);
+            }
+        }).assertAtMost(CARD_DRAWS, 1, 0);
+    }
+
+    public void testGetPadding() {
+        for (Shape shape : SHAPES) {
+            final float radius = RADII[1];
+            final int[] size = SIZES[0];
+            final RoundRectDrawableWithShadow drawable = createDrawable(shape, radius, size);
+            measure("getPadding", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    drawable.getPadding(mPadding);
+                }
+            }).assertAtMost(0, 0, 0);
+        }
+    }
+
+    /**
+     * Compiling the card body with both body helpers, whatever the running API level.
+     */
+    public void testCompileRoundRect() {
+        final RoundRectDrawableWithShadow.RoundRectHelper[] helpers = {
+                new RoundRectDrawableWithShadow.ArcRoundRectHelper(),
+                new RoundRectDrawableWithShadow.NativeRoundRectHelper()};
+        final String[] names = {"arcBody", "nativeBody"};
+        final DrawOpBuffer ops = new DrawOpBuffer();
+        final Paint[] paints = new Paint[DrawOpBuffer.PAINT_COUNT];
+        paints[DrawOpBuffer.PAINT_BODY] = new Paint();
+        for (int h = 0; h < helpers.length; h++) {
+            final RoundRectDrawableWithShadow.RoundRectHelper helper = helpers[h];
+            for (Shape shape : SHAPES) {
+                for (float radius : RADII) {
+                    final int[] size = SIZES[0];
+                    final RectF bounds = new RectF(0, 0, size[0], size[1]);
+                    final float[] radii = new float[4];
+                    for (int corner = 0; corner < 4; corner++) {
+                        radii[corner] = (int) (shape.mRadii[corner] * radius + .5f);
+                    }
+                    measure(names[h], config(shape, radius, size), new Runnable() {
+                        @Override
+                        public void run() {
+                            ops.reset();
+                            helper.compileRoundRect(ops, bounds, radii, false);
+                            ops.draw(mCanvas, paints, null, 0f);
+                        }
+                    }).assertAtMost(BODY_DRAWS, 0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Steady state draw of the same card in each rendering mode.
+     */
+    public void testRenderingModes() {
+        final Shape shape = SHAPES[0];
+        final float radius = RADII[1];
+        for (int[] size : SIZES) {
+            final RoundRectDrawableWithShadow ops = createDrawable(shape, radius, size);
+            measure("draw:ops", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    ops.draw(mCanvas);
+                }
+            }).assertAtMost(CARD_DRAWS, 0, 0);
+
+            final RoundRectDrawableWithShadow ninePatch = createDrawable(shape, radius, size);
+            ninePatch.setNinePatchShadow(true);
+            ninePatch.draw(mCanvas);
+            measure("draw:ninePatch", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    ninePatch.draw(mCanvas);
+                }
+            }).assertAtMost(NINE_PATCH_DRAWS + BODY_DRAWS, 0, 0);
+
+            final RoundRectDrawableWithShadow low = createDrawable(shape, radius, size);
+            low.setDetailLevel(RoundRectDrawableWithShadow.DETAIL_LOW);
+            measure("draw:lowDetail", config(shape, radius, size), new Runnable() {
+                @Override
+                public void run() {
+                    low.draw(mCanvas);
+                }
+            }).assertAtMost(LOW_DETAIL_CARD_DRAWS, 0, 0);
+
+            // a selection highlight: the body color changes on every frame
+            final RoundRectDrawableWithShadow layer = createDrawable(shape, radius, size);
+            layer.setCachedShadowLayer(true);
+            layer.draw(mCanvas);
+            measure("setColor:layer", config(shape, radius, size), new Runnable() {
+                int mFrame;
+
+                @Override
+                public void run() {
+                    layer.setColor((mFrame++ & 1) == 0 ? Color.WHITE : Color.LTGRAY);
+                    layer.draw(mCanvas);
+                }
+            }).assertAtMost(NINE_PATCH_DRAWS + BODY_DRAWS, 0, 0);
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                RoundRectDrawableWithShadow.setUseNativeShadows(true);
+                try {
+                    final RoundRectDrawableWithShadow nativeShadow =
+                            createDrawable(shape, radius, size);
+                    measure("draw:native", config(shape, radius, size), new Runnable() {
+                        @Override
+                        public void run() {
+                            nativeShadow.draw(mCanvas);
+                        }
+                    }).assertAtMost(BODY_DRAWS, 0, 0);
+                } finally {
+                    RoundRectDrawableWithShadow.setUseNativeShadows(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.test.AndroidTestCase;
+import android.view.animation.Interpolator;
+
+/**
+ * Counts how often each pixel is written when drawing a card, by replaying its compiled ops on a
+ * software canvas with aliased, additive paints: the red channel of every pixel ends up holding
+ * the number of writes.
+ */
+public class ShadowOverdrawTest extends AndroidTestCase {
+
+    private static final int WIDTH = 240;
+    private static final int HEIGHT = 180;
+
+    private static final float SHADOW_SIZE = 8;
+
+    // corner radii, clockwise from the top left
+    private static final float[][] RADII = {{0, 0, 0, 0}, {12, 12, 12, 12}, {16, 4, 0, 24}};
+
+    private RoundRectDrawableWithShadow createDrawable(float[] radii, boolean tessellated) {
+        final RoundRectDrawableWithShadow drawable = new RoundRectDrawableWithShadow(
+                getContext().getResources(), Color.WHITE, 0, SHADOW_SIZE, SHADOW_SIZE);
+        drawable.setCornerRadii(radii[0], radii[1], radii[2], radii[3]);
+        drawable.setShadowEdges(RoundRectDrawableWithShadow.EDGE_ALL);
+        drawable.setTessellated(tessellated);
+        drawable.setBounds(0, 0, WIDTH, HEIGHT);
+        build(drawable);
+        return drawable;
+    }
+
+    private static void build(RoundRectDrawableWithShadow drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        drawable.draw(new Canvas(bitmap));
+        bitmap.recycle();
+    }
+
+    /**
+     * Returns the number of writes of every pixel.
+     */
+    private static int[] countWrites(RoundRectDrawableWithShadow drawable, boolean shadow,
+            boolean body) {
+        final Paint[] paints = new Paint[DrawOpBuffer.PAINT_COUNT];
+        for (int i = 0; i < paints.length; i++) {
+            paints[i] = new Paint();
+            paints[i].setColor(0xff010101);
+            paints[i].setXfermode(new PorterDuffXfermode(PorterDuff.Mode.ADD));
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        if (shadow) {
+            drawable.mShadowOps.draw(canvas, paints,
+                    drawable.getCornerPaths(drawable.mAssets, 0), 0f);
+        }
+        if (body) {
+            drawable.mBodyOps.draw(canvas, paints, null, 0f);
+        }
+        final int[] writes = new int[WIDTH * HEIGHT];
+        bitmap.getPixels(writes, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        bitmap.recycle();
+        for (int i = 0; i < writes.length; i++) {
+            writes[i] = Color.red(writes[i]);
+        }
+        return writes;
+    }
+
+    /**
+     * Returns the number of pixels written more than the given number of times.
+     */
+    private static int countAbove(int[] writes, int max) {
+        int count = 0;
+        for (int w : writes) {
+            if (w > max) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Upper bound of the pixels along the rounded card corners, where the regular arcs, half a
+     * pixel larger, and the tessellated ones may disagree.
+     */
+    private static int curvedSeamPixels(float[] radii) {
+        int pixels = 0;
+        for (float radius : radii) {
+            pixels += (int) Math.ceil(2 * radius);
+        }
+        return pixels;
+    }
+
+    public void testTessellatedBodyWritesEachPixelOnce() {
+        for (float[] radii : RADII) {
+            final int[] writes = countWrites(createDrawable(radii, true), false, true);
+            assertEquals(0, countAbove(writes, 1));
+        }
+    }
+
+    public void testTessellatedBodyCoversTheCard() {
+        for (float[] radii : RADII) {
+            final int covered = countAbove(countWrites(createDrawable(radii, true), false, true),
+                    0);
+            final int expected = countAbove(
+                    countWrites(createDrawable(radii, false), false, true), 0);
+            // the regular arcs are half a pixel larger
+            assertTrue(Math.abs(covered - expected) <= curvedSeamPixels(radii));
+        }
+    }
+
+    public void testTessellatedCardWritesEachPixelOnce() {
+        for (float[] radii : RADII) {
+            final int[] writes = countWrites(createDrawable(radii, true), true, true);
+            assertEquals(0, countAbove(writes, 1));
+        }
+    }
+
+    public void testAnimatedTessellatedShadowRunsBeneathTheCard() {
+        for (float[] radii : RADII) {
+            final RoundRectDrawableWithShadow drawable = createDrawable(radii, true);
+            final ShadowAssets assets = drawable.mAssets;
+            assertNotSame(assets.mCornerShadowPaths, drawable.getCornerPaths(assets, 0));
+
+            // frames scale the shadow ops, which would move the cut-outs off the card
+            drawable.animateShadowSize(SHADOW_SIZE / 2, 60000, new Interpolator() {
+                @Override
+                public float getInterpolation(float input) {
+                    return .5f;
+                }
+            });
+            build(drawable);
+            assertSame(assets.mCornerShadowPaths, drawable.getCornerPaths(assets, 0));
+
+            drawable.cancelShadowAnimation();
+            build(drawable);
+            assertEquals(0, countAbove(countWrites(drawable, true, true), 1));
+        }
+    }
+
+    public void testRegularCardOverdraws() {
+        // the shadow runs on beneath the body, which the test above must tell apart
+        final float[] radii = RADII[2];
+        final int[] regular = countWrites(createDrawable(radii, false), true, true);
+        assertTrue(countAbove(regular, 1) > WIDTH + curvedSeamPixels(radii));
+    }
+
+    public void testTessellatedShadowCoversTheSameArea() {
+        for (float[] radii : RADII) {
+            final int[] tessellated = countWrites(createDrawable(radii, true), true, true);
+            final int[] regular = countWrites(createDrawable(radii, false), true, true);
+            int differing = 0;
+            for (int i = 0; i < tessellated.length; i++) {
+                if ((tessellated[i] == 0) != (regular[i] == 0)) {
+                    differing++;
+                }
+            }
+            assertTrue(differing <= curvedSeamPixels(radii));
+        }
+    }
+
+    public void testTessellatedPillBodyWritesEachPixelOnce() {
+        // corners reaching half of the card's height, and beyond
+        final float[][] pills = {{90, 90, 90, 90}, {200, 200, 200, 200}};
+        for (float[] radii : pills) {
+            final int[] writes = countWrites(createDrawable(radii, true), false, true);
+            assertEquals(0, countAbove(writes, 1));
+            assertTrue(countAbove(writes, 0) > 0);
+        }
+    }
+
+    public void testTranslucentBodyKeepsTheShadowBeneath() {
+        final RoundRectDrawableWithShadow drawable = createDrawable(RADII[1], true);
+        drawable.setAlpha(128);
+        build(drawable);
+        assertTrue(countAbove(countWrites(drawable, true, true), 1) > 0);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that snapshots match a regular draw, also when many render in parallel, and that
+ * released snapshots are reused.
+ */
+public class ShadowSnapshotsTest extends AndroidTestCase {
+
+    private static final int WIDTH = 240;
+    private static final int HEIGHT = 180;
+
+    private static final int PARALLEL_SNAPSHOTS = 64;
+
+    private RoundRectDrawableWithShadow createDrawable() {
+        final RoundRectDrawableWithShadow drawable = new RoundRectDrawableWithShadow(
+                getContext().getResources(), Color.WHITE, 12, 8, 8);
+        drawable.setShadowEdges(RoundRectDrawableWithShadow.EDGE_ALL);
+        return drawable;
+    }
+
+    private Bitmap drawDirectly(RoundRectDrawableWithShadow drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, WIDTH, HEIGHT);
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    private static void assertSamePixels(Bitmap expected, Bitmap actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        final int[] expectedPixels = new int[WIDTH * HEIGHT];
+        final int[] actualPixels = new int[WIDTH * HEIGHT];
+        expected.getPixels(expectedPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        actual.getPixels(actualPixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        for (int i = 0; i < expectedPixels.length; i++) {
+            assertEquals("pixel " + i, expectedPixels[i], actualPixels[i]);
+        }
+    }
+
+    public void testSnapshotMatchesDraw() {
+        final RoundRectDrawableWithShadow drawable = createDrawable();
+        final Bitmap snapshot = ShadowSnapshots.render(drawable, WIDTH, HEIGHT);
+        assertSamePixels(drawDirectly(drawable), snapshot);
+        ShadowSnapshots.release(snapshot);
+    }
+
+    public void testParallelSnapshots() throws InterruptedException {
+        final RoundRectDrawableWithShadow drawable = createDrawable();
+        final Bitmap expected = drawDirectly(drawable);
+        final Bitmap[] snapshots = new Bitmap[PARALLEL_SNAPSHOTS];
+        final CountDownLatch done = new CountDownLatch(PARALLEL_SNAPSHOTS);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < PARALLEL_SNAPSHOTS; i++) {
+                final int index = i;
+                ShadowSnapshots.render(drawable, WIDTH, HEIGHT, executor,
+                        new ShadowSnapshots.Callback() {
+                            @Override
+                            public void onSnapshot(Bitmap snapshot) {
+                                snapshots[index] = snapshot;
+                                done.countDown();
+                            }
+                        });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        for (Bitmap snapshot : snapshots) {
+            assertSamePixels(expected, snapshot);
+            ShadowSnapshots.release(snapshot);
+        }
+    }
+
+    public void testSnapshotOfCachedLayerBuildsNoBitmap() {
+        final RoundRectDrawableWithShadow drawable = createDrawable();
+        drawable.setCachedShadowLayer(true);
+        drawDirectly(drawable).recycle();
+        ShadowBitmapCache.clear();
+        final Bitmap snapshot = ShadowSnapshots.render(drawable, WIDTH, HEIGHT);
+        assertEquals(0, ShadowBitmapCache.getSizeBytes());
+        assertTrue(drawable.isCachedShadowLayer());
+        ShadowSnapshots.release(snapshot);
+    }
+
+    public void testReleasedSnapshotIsReused() {
+        ShadowSnapshots.clearPool();
+        final RoundRectDrawableWithShadow drawable = createDrawable();
+        final Bitmap first = ShadowSnapshots.render(drawable, WIDTH, HEIGHT);
+        ShadowSnapshots.release(first);
+        assertTrue(ShadowSnapshots.getPoolBytes() > 0);
+        final Bitmap second = ShadowSnapshots.render(drawable, WIDTH, HEIGHT);
+        assertSame(first, second);
+        assertEquals(0, ShadowSnapshots.getPoolBytes());
+        ShadowSnapshots.release(second);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import java.util.Arrays;
+
+/**
+ * The shape and shadow of a card, as set on a {@link RoundRectDrawableWithShadow}. Used to
+ * prepare shadows ahead of time, see {@link ShadowPrewarmer}, and to draw them in batches, see
+ * {@link ShadowItemDecoration}. Immutable: the with methods return modified copies.
+ */
+public final class CardShadowSpec {
+
+    final float[] mCornerRadii;
+
+    final int mShadowEdges;
+
+    final float mShadowSize;
+
+    final float mMaxShadowSize;
+
+    // shadow layers, see RoundRectDrawableWithShadow.setShadowLayers(), or the single shadow of
+    // the card view theme unless layered
+    final boolean mLayered;
+
+    final int mAmbientColor;
+
+    final float mAmbientOffset;
+
+    final int mKeyColor;
+
+    final float mKeyOffset;
+
+    // see RoundRectDrawableWithShadow.setGaussianFalloff()
+    final boolean mGaussianFalloff;
+
+    /**
+     * A card with all corners rounded alike and a shadow on every edge.
+     */
+    public CardShadowSpec(float cornerRadius, float shadowSize, float maxShadowSize) {
+        this(cornerRadius, cornerRadius, cornerRadius, cornerRadius,
+                RoundRectDrawableWithShadow.EDGE_ALL, shadowSize, maxShadowSize);
+    }
+
+    /**
+     * @param shadowEdges a combination of the RoundRectDrawableWithShadow.EDGE_ flags
+     */
+    public CardShadowSpec(float topLeft, float topRight, float bottomRight, float bottomLeft,
+            int shadowEdges, float shadowSize, float maxShadowSize) {
+        if (topLeft < 0 || topRight < 0 || bottomRight < 0 || bottomLeft < 0) {
+            throw new IllegalArgumentException("invalid corner radius");
+        }
+        if (shadowSize < 0 || maxShadowSize < 0) {
+            throw new IllegalArgumentException("invalid shadow size");
+        }
+        mCornerRadii = new float[]{topLeft, topRight, bottomRight, bottomLeft};
+        mShadowEdges = shadowEdges & RoundRectDrawableWithShadow.EDGE_ALL;
+        mShadowSize = shadowSize;
+        mMaxShadowSize = maxShadowSize;
+        mLayered = false;
+        mAmbientColor = 0;
+        mAmbientOffset = 0;
+        mKeyColor = 0;
+        mKeyOffset = 0;
+        mGaussianFalloff = false;
+    }
+
+    private CardShadowSpec(CardShadowSpec orig, boolean layered, int ambientColor,
+            float ambientOffset, int keyColor, float keyOffset, boolean gaussianFalloff) {
+        mCornerRadii = orig.mCornerRadii;
+        mShadowEdges = orig.mShadowEdges;
+        mShadowSize = orig.mShadowSize;
+        mMaxShadowSize = orig.mMaxShadowSize;
+        mLayered = layered;
+        mAmbientColor = ambientColor;
+        mAmbientOffset = ambientOffset;
+        mKeyColor = keyColor;
+        mKeyOffset = keyOffset;
+        mGaussianFalloff = gaussianFalloff;
+    }
+
+    /**
+     * Returns a copy of this spec drawing two shadow layers, see
+     * {@link RoundRectDrawableWithShadow#setShadowLayers(int, float, int, float)}.
+     */
+    public CardShadowSpec withShadowLayers(int ambientColor, float ambientOffset, int keyColor,
+            float keyOffset) {
+        if (ambientOffset < 0 || ambientOffset > RoundRectDrawableWithShadow.MAX_SHADOW_OFFSET
+                || keyOffset < 0 || keyOffset > RoundRectDrawableWithShadow.MAX_SHADOW_OFFSET) {
+            throw new IllegalArgumentException("invalid shadow offset");
+        }
+        return new CardShadowSpec(this, true, ambientColor, ambientOffset, keyColor, keyOffset,
+                mGaussianFalloff);
+    }
+
+    /**
+     * Returns a copy of this spec with the given falloff, see
+     * {@link RoundRectDrawableWithShadow#setGaussianFalloff(boolean)}.
+     */
+    public CardShadowSpec withGaussianFalloff(boolean gaussianFalloff) {
+        return new CardShadowSpec(this, mLayered, mAmbientColor, mAmbientOffset, mKeyColor,
+                mKeyOffset, gaussianFalloff);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CardShadowSpec)) {
+            return false;
+        }
+        CardShadowSpec other = (CardShadowSpec) o;
+        return Arrays.equals(mCornerRadii, other.mCornerRadii)
+                && mShadowEdges == other.mShadowEdges
+                && Float.floatToIntBits(mShadowSize) == Float.floatToIntBits(other.mShadowSize)
+                && Float.floatToIntBits(mMaxShadowSize)
+                        == Float.floatToIntBits(other.mMaxShadowSize)
+                && mLayered == other.mLayered
+                && mAmbientColor == other.mAmbientColor
+                && Float.floatToIntBits(mAmbientOffset)
+                        == Float.floatToIntBits(other.mAmbientOffset)
+                && mKeyColor == other.mKeyColor
+                && Float.floatToIntBits(mKeyOffset) == Float.floatToIntBits(other.mKeyOffset)
+                && mGaussianFalloff == other.mGaussianFalloff;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(mCornerRadii);
+        hash = 31 * hash + mShadowEdges;
+        hash = 31 * hash + Float.floatToIntBits(mShadowSize);
+        hash = 31 * hash + Float.floatToIntBits(mMaxShadowSize);
+        hash = 31 * hash + (mLayered ? 1 : 0);
+        hash = 31 * hash + mAmbientColor;
+        hash = 31 * hash + Float.floatToIntBits(mAmbientOffset);
+        hash = 31 * hash + mKeyColor;
+        hash = 31 * hash + Float.floatToIntBits(mKeyOffset);
+        hash = 31 * hash + (mGaussianFalloff ? 1 : 0);
+        return hash;
+    }
+}
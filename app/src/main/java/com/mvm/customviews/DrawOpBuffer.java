@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Flat list of pre-transformed draw operations, compiled once per rebuild and replayed on every
+ * draw.
+ * <p>
+ * Each op is drawn in a frame translated to its origin. Rotations are resolved at compile time:
+ * rects are rotated into axis aligned rects, and paths and shaders are picked from their
+ * pre-rotated variants by rotation index (0, 90, 180 and 270 degrees). Replaying therefore only
+ * needs translations, and no save/restore.
+ * <p>
+ * The bounds of every op follow from its layout, so ops outside the clip are skipped with a few
+ * float comparisons instead of a canvas call each.
+ */
+final class DrawOpBuffer {
+
+    static final int OP_PATH = 0;
+    static final int OP_RECT = 1;
+    static final int OP_ARC = 2;
+    static final int OP_ROUND_RECT = 3;
+
+    // indices into the paint array passed to draw()
+    static final int PAINT_BODY = 0;
+    // followed by one corner paint per rotation index, then one edge paint per rotation index,
+    // then the solid paints of the inner and outer edge bands, see draw()
+    static final int PAINT_CORNER_SHADOW = 1;
+    static final int PAINT_EDGE_SHADOW = PAINT_CORNER_SHADOW + 4;
+    static final int PAINT_EDGE_BAND = PAINT_EDGE_SHADOW + 4;
+    static final int PAINT_COUNT = PAINT_EDGE_BAND + 2;
+
+    // index of the whole ring among the paths of a pill or circle shadow, after the caps
+    static final int PATH_RING = 4;
+
+    // which axes a shadow op scales along when the shadow is shrunk, see draw()
+    private static final int SCALE_NONE = 0;
+    private static final int SCALE_XY = 1;
+    private static final int SCALE_X = 2;
+    private static final int SCALE_Y = 3;
+
+    // op layout
+    private static final int OP = 0;
+    private static final int PAINT = 1;
+    private static final int PATH = 2;
+    private static final int SCALE = 3;
+    private static final int DX = 4;
+    private static final int DY = 5;
+    private static final int A = 6;
+    private static final int B = 7;
+    private static final int C = 8;
+    private static final int D = 9;
+    private static final int E = 10;
+    // shadow depth measured from the op origin, the pivot when shrinking the shadow
+    private static final int DEPTH = 11;
+    private static final int STRIDE = 12;
+
+    private float[] mOps = new float[16 * STRIDE];
+
+    private int mCount;
+
+    private final RectF mScratchRect = new RectF();
+
+    // ops the last draw scaled, see draw()
+    private int mScaleCount;
+
+    // bounds of the op being tested, see computeBounds()
+    private final RectF mOpBounds = new RectF();
+
+    // ops left out by the last draw
+    private int mCulledCount;
+
+    /**
+     * Decides which shadow ops can be left out because something drawn later covers them.
+     */
+    interface Culler {
+        /**
+         * @return true if the rect, in canvas coordinates, ends up completely covered
+         */
+        boolean isHidden(float left, float top, float right, float bottom);
+    }
+
+    void reset() {
+        mCount = 0;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns how many ops the last draw scaled to shrink the shadow, each with a scale and an
+     * inverse scale.
+     */
+    int getScaleCount() {
+        return mScaleCount;
+    }
+
+    /**
+     * Returns how many ops the last draw left out, outside the clip or hidden.
+     */
+    int getCulledCount() {
+        return mCulledCount;
+    }
+
+    /**
+     * Moves all ops by (dx, dy).
+     */
+    void offset(float dx, float dy) {
+        final float[] ops = mOps;
+        for (int i = 0, end = mCount * STRIDE; i < end; i += STRIDE) {
+            ops[i + DX] += dx;
+            ops[i + DY] += dy;
+        }
+    }
+
+    private int append(int op, int paint, float dx, float dy) {
+        final int i = mCount * STRIDE;
+        if (i + STRIDE > mOps.length) {
+            final float[] ops = new float[mOps.length * 2];
+            System.arraycopy(mOps, 0, ops, 0, i);
+            mOps = ops;
+        }
+        mOps[i + OP] = op;
+        mOps[i + PAINT] = paint;
+        mOps[i + PATH] = 0;
+        mOps[i + SCALE] = SCALE_NONE;
+        mOps[i + DEPTH] = 0;
+        mOps[i + DX] = dx;
+        mOps[i + DY] = dy;
+        mCount++;
+        return i;
+    }
+
+    /**
+     * Adds the corner shadow path with the given rotation index, centered at (dx, dy) and
+     * reaching depth away from it.
+     */
+    void addCornerShadow(int rotation, float dx, float dy, float depth) {
+        // a corner path fills the quadrant of its rotation
+        final float left = rotation == 0 || rotation == 3 ? -depth : 0;
+        final float top = rotation < 2 ? -depth : 0;
+        addShadowPath(rotation, rotation, dx, dy, depth, left, top, left + depth, top + depth);
+    }
+
+    /**
+     * Adds the cap shadow path of a pill with the given rotation index, the left cap turned by
+     * rotation * 90 degrees, centered at (dx, dy) and reaching depth away from it.
+     */
+    void addCapShadow(int rotation, float dx, float dy, float depth) {
+        addShadowPath(rotation, rotation, dx, dy, depth,
+                rotation == 2 ? 0 : -depth, rotation == 3 ? 0 : -depth,
+                rotation == 0 ? 0 : depth, rotation == 1 ? 0 : depth);
+    }
+
+    /**
+     * Adds the ring shadow path of a circle, centered at (dx, dy) and reaching depth away from
+     * it.
+     */
+    void addRingShadow(float dx, float dy, float depth) {
+        addShadowPath(PATH_RING, 0, dx, dy, depth, -depth, -depth, depth, depth);
+    }
+
+    /**
+     * @param paint rotation index of the corner paint, whose radial shader is the same for
+     *         every path of a round shape
+     */
+    private void addShadowPath(int path, int paint, float dx, float dy, float depth, float left,
+            float top, float right, float bottom) {
+        final int i = append(OP_PATH, PAINT_CORNER_SHADOW + paint, dx, dy);
+        mOps[i + PATH] = path;
+        mOps[i + SCALE] = SCALE_XY;
+        mOps[i + DEPTH] = depth;
+        // bounds relative to the origin
+        mOps[i + A] = left;
+        mOps[i + B] = top;
+        mOps[i + C] = right;
+        mOps[i + D] = bottom;
+    }
+
+    /**
+     * Adds an edge shadow rect given in the frame of an edge rotated by rotation * 90 degrees
+     * around (dx, dy), reaching depth away from the edge. Empty rects are dropped, like the
+     * canvas would.
+     */
+    void addEdgeShadow(int rotation, float dx, float dy, float left, float top, float right,
+            float bottom, float depth) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        final int i = append(OP_RECT, PAINT_EDGE_SHADOW + rotation, dx, dy);
+        final float[] ops = mOps;
+        // rotating by 90 degrees maps (x, y) to (-y, x)
+        switch (rotation) {
+            case 0:
+                ops[i + A] = left;
+                ops[i + B] = top;
+                ops[i + C] = right;
+                ops[i + D] = bottom;
+                break;
+            case 1:
+                ops[i + A] = -bottom;
+                ops[i + B] = left;
+                ops[i + C] = -top;
+                ops[i + D] = right;
+                break;
+            case 2:
+                ops[i + A] = -right;
+                ops[i + B] = -bottom;
+                ops[i + C] = -left;
+                ops[i + D] = -top;
+                break;
+            default:
+                ops[i + A] = top;
+                ops[i + B] = -right;
+                ops[i + C] = bottom;
+                ops[i + D] = -left;
+                break;
+        }
+        // the shadow depth runs along the edge's y axis
+        ops[i + SCALE] = rotation % 2 == 0 ? SCALE_Y : SCALE_X;
+        ops[i + DEPTH] = depth;
+    }
+
+    /**
+     * Adds a rect, dropping empty ones like the canvas would.
+     */
+    void addRect(int paint, float left, float top, float right, float bottom) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        final int i = append(OP_RECT, paint, 0, 0);
+        mOps[i + A] = left;
+        mOps[i + B] = top;
+        mOps[i + C] = right;
+        mOps[i + D] = bottom;
+    }
+
+    /**
+     * Adds a pie of a circle with the given radius centered at (dx, dy).
+     */
+    void addArc(int paint, float dx, float dy, float radius, float startAngle, float sweepAngle) {
+        final int i = append(OP_ARC, paint, dx, dy);
+        mOps[i + A] = radius;
+        mOps[i + B] = startAngle;
+        mOps[i + C] = sweepAngle;
+    }
+
+    void addRoundRect(int paint, float left, float top, float right, float bottom,
+            float radius) {
+        final int i = append(OP_ROUND_RECT, paint, 0, 0);
+        mOps[i + A] = left;
+        mOps[i + B] = top;
+        mOps[i + C] = right;
+        mOps[i + D] = bottom;
+        mOps[i + E] = radius;
+    }
+
+    /**
+     * Replays the ops.
+     *
+     * @param paths corner or cap shadow paths by rotation index, followed by the ring of a
+     *         circle, may be null if there are no path ops
+     * @param shrink how much less deep than compiled the shadow is drawn, 0 to draw the ops as
+     *         compiled. Each shadow op is scaled around its origin so that its depth shrinks by
+     *         that amount.
+     * @return the number of canvas draw calls issued
+     */
+    int draw(Canvas canvas, Paint[] paints, Path[] paths, float shrink) {
+        return draw(canvas, paints, paths, shrink, null, null, false);
+    }
+
+    /**
+     * Replays the ops, leaving out the ops entirely outside the clip and the shadow ops the
+     * culler reports hidden. Ops are tested with their unshrunk bounds, which contain the
+     * shrunk ones.
+     *
+     * @param culler may be null to draw every shadow op
+     * @param clip the clip bounds of the canvas, or null to draw ops regardless of the clip
+     * @param edgeBands true to draw each edge shadow as two solid bands instead of its
+     *         gradient, split half way through the shadow depth
+     */
+    int draw(Canvas canvas, Paint[] paints, Path[] paths, float shrink, Culler culler,
+            Rect clip, boolean edgeBands) {
+        final float[] ops = mOps;
+        final boolean scaled = shrink != 0f;
+        final RectF bounds = mOpBounds;
+        int drawCalls = 0;
+        int scaleCount = 0;
+        int culled = 0;
+        float tx = 0, ty = 0;
+        for (int i = 0, end = mCount * STRIDE; i < end; i += STRIDE) {
+            final float dx = ops[i + DX];
+            final float dy = ops[i + DY];
+            if (clip != null || culler != null) {
+                computeBounds(i, bounds);
+                if ((clip != null && (bounds.left >= clip.right || bounds.right <= clip.left
+                        || bounds.top >= clip.bottom || bounds.bottom <= clip.top))
+                        || (culler != null && ops[i + SCALE] != SCALE_NONE
+                        && culler.isHidden(bounds.left, bounds.top, bounds.right,
+                        bounds.bottom))) {
+                    culled++;
+                    continue;
+                }
+            }
+            if (dx != tx || dy != ty) {
+                canvas.translate(dx - tx, dy - ty);
+                tx = dx;
+                ty = dy;
+            }
+            final int scaleAxes = scaled ? (int) ops[i + SCALE] : SCALE_NONE;
+            float sx = 1f, sy = 1f;
+            if (scaleAxes != SCALE_NONE) {
+                final float depth = ops[i + DEPTH];
+                final float scale = depth > 0 ? Math.max(0f, (depth - shrink) / depth) : 1f;
+                if (scale == 0f) {
+                    // shrunk away
+                    continue;
+                }
+                sx = scaleAxes != SCALE_Y ? scale : 1f;
+                sy = scaleAxes != SCALE_X ? scale : 1f;
+                canvas.scale(sx, sy);
+                scaleCount++;
+            }
+            final int paintIndex = (int) ops[i + PAINT];
+            final Paint paint = paints[paintIndex];
+            if (edgeBands && paintIndex >= PAINT_EDGE_SHADOW && paintIndex < PAINT_EDGE_BAND) {
+                // edge shadows are always rects
+                drawCalls += drawEdgeBands(canvas, paints, i, paintIndex - PAINT_EDGE_SHADOW);
+            } else {
+                drawCalls++;
+                switch ((int) ops[i + OP]) {
+                    case OP_PATH:
+                        canvas.drawPath(paths[(int) ops[i + PATH]], paint);
+                        break;
+                    case OP_RECT:
+                        canvas.drawRect(ops[i + A], ops[i + B], ops[i + C], ops[i + D], paint);
+                        break;
+                    case OP_ARC:
+                        final float radius = ops[i + A];
+                        mScratchRect.set(-radius, -radius, radius, radius);
+                        canvas.drawArc(mScratchRect, ops[i + B], ops[i + C], true, paint);
+                        break;
+                    case OP_ROUND_RECT:
+                        mScratchRect.set(ops[i + A], ops[i + B], ops[i + C], ops[i + D]);
+                        canvas.drawRoundRect(mScratchRect, ops[i + E], ops[i + E], paint);
+                        break;
+                }
+            }
+            if (scaleAxes != SCALE_NONE) {
+                canvas.scale(1f / sx, 1f / sy);
+            }
+        }
+        if (tx != 0 || ty != 0) {
+            canvas.translate(-tx, -ty);
+        }
+        mScaleCount = scaleCount;
+        mCulledCount = culled;
+        return drawCalls;
+    }
+
+    /**
+     * Draws edge shadow op i as an inner and an outer solid band, split half way through its
+     * depth. The outer side lies towards y = -depth in the frame of the edge, rotated like the
+     * rect, see addEdgeShadow().
+     *
+     * @return the number of canvas draw calls issued
+     */
+    private int drawEdgeBands(Canvas canvas, Paint[] paints, int i, int rotation) {
+        final float[] ops = mOps;
+        final float left = ops[i + A];
+        final float top = ops[i + B];
+        final float right = ops[i + C];
+        final float bottom = ops[i + D];
+        final float half = ops[i + DEPTH] / 2;
+        final Paint inner = paints[PAINT_EDGE_BAND];
+        final Paint outer = paints[PAINT_EDGE_BAND + 1];
+        switch (rotation) {
+            case 0:
+                return drawBand(canvas, left, top, right, Math.min(bottom, -half), outer)
+                        + drawBand(canvas, left, Math.max(top, -half), right, bottom, inner);
+            case 1:
+                return drawBand(canvas, Math.max(left, half), top, right, bottom, outer)
+                        + drawBand(canvas, left, top, Math.min(right, half), bottom, inner);
+            case 2:
+                return drawBand(canvas, left, Math.max(top, half), right, bottom, outer)
+                        + drawBand(canvas, left, top, right, Math.min(bottom, half), inner);
+            default:
+                return drawBand(canvas, left, top, Math.min(right, -half), bottom, outer)
+                        + drawBand(canvas, Math.max(left, -half), top, right, bottom, inner);
+        }
+    }
+
+    private static int drawBand(Canvas canvas, float left, float top, float right, float bottom,
+            Paint paint) {
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        canvas.drawRect(left, top, right, bottom, paint);
+        return 1;
+    }
+
+    /**
+     * Sets the rect to the bounds of op i, in the coordinates the ops are drawn in.
+     */
+    private void computeBounds(int i, RectF out) {
+        final float[] ops = mOps;
+        final float dx = ops[i + DX];
+        final float dy = ops[i + DY];
+        switch ((int) ops[i + OP]) {
+            case OP_ARC:
+                final float radius = ops[i + A];
+                out.set(dx - radius, dy - radius, dx + radius, dy + radius);
+                break;
+            default:
+                out.set(ops[i + A] + dx, ops[i + B] + dy, ops[i + C] + dx, ops[i + D] + dy);
+                break;
+        }
+    }
+}
@@ -15,18 +15,29 @@
  */
 package com.mvm.customviews;
 
+import android.annotation.TargetApi;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.ColorFilter;
-import android.graphics.LinearGradient;
+import android.graphics.Outline;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PixelFormat;
-import android.graphics.RadialGradient;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
 import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Shader;
+import android.graphics.Region;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.SparseArray;
+import android.util.StateSet;
+import android.view.animation.Interpolator;
+
+import java.util.Arrays;
+import java.util.WeakHashMap;
 
 /**
  * A rounded rectangle drawable which also includes a shadow around.
@@ -35,15 +46,60 @@ public class RoundRectDrawableWithShadow extends Drawable {
     // used to calculate content padding
     final static double COS_45 = Math.cos(Math.toRadians(45));
 
-    enum TYPE {
-        ALL, TOP, BOTTOM,NONE
-    }
+    /**
+     * Corner indices for {@link #getCornerRadius(int)}, clockwise from the top left.
+     */
+    public static final int CORNER_TOP_LEFT = 0;
+    public static final int CORNER_TOP_RIGHT = 1;
+    public static final int CORNER_BOTTOM_RIGHT = 2;
+    public static final int CORNER_BOTTOM_LEFT = 3;
+
+    /**
+     * Edge flags for {@link #setShadowEdges(int)}. Edge i runs clockwise from corner i.
+     */
+    public static final int EDGE_TOP = 1;
+    public static final int EDGE_RIGHT = 1 << 1;
+    public static final int EDGE_BOTTOM = 1 << 2;
+    public static final int EDGE_LEFT = 1 << 3;
+    public static final int EDGE_ALL = EDGE_TOP | EDGE_RIGHT | EDGE_BOTTOM | EDGE_LEFT;
+
+    /**
+     * Detail levels, see {@link #setDetailLevel(int)}: everything as configured, then without
+     * anti-aliasing, dithering and bitmap filtering and with two solid bands instead of each
+     * edge gradient, then the card body only.
+     */
+    public static final int DETAIL_FULL = 0;
+    public static final int DETAIL_LOW = 1;
+    public static final int DETAIL_BODY_ONLY = 2;
 
-    TYPE mType = TYPE.ALL;
+    // direction from a corner to the center of its arc, by corner index
+    private final static int[] CORNER_SIGN_X = {1, -1, -1, 1};
+    private final static int[] CORNER_SIGN_Y = {1, 1, -1, -1};
 
     final static float SHADOW_MULTIPLIER = 1.5f;
 
-    final int mInsetShadow; // extra shadow to avoid gaps between card and shadow
+    // vertical shadow offsets, as fractions of the shadow size. The padding makes room for up to
+    // half of the shadow size below the card.
+    final static float DEFAULT_SHADOW_OFFSET = .5f;
+    final static float MAX_SHADOW_OFFSET = .5f;
+
+    // what has to be rebuilt before the next draw. Body color, alpha, shadow tint and shadow
+    // alpha only live in the paints and never need a rebuild.
+    final static int DIRTY_SIZE = 1;
+    final static int DIRTY_SHAPE = 1 << 1; // corner radii and shadow edges
+    final static int DIRTY_SHADOW_SIZE = 1 << 2;
+    final static int DIRTY_SHADOW_COLORS = 1 << 3; // gradient colors and falloff
+    final static int DIRTY_NINE_PATCH = 1 << 4;
+    final static int DIRTY_SHADOW_LAYERS = 1 << 5; // layer colors and offsets
+    final static int DIRTY_TESSELLATION = 1 << 6;
+    final static int DIRTY_ALL = DIRTY_SIZE | DIRTY_SHAPE | DIRTY_SHADOW_SIZE
+            | DIRTY_SHADOW_COLORS | DIRTY_NINE_PATCH | DIRTY_SHADOW_LAYERS | DIRTY_TESSELLATION;
+    // changes that move the card or the shadow geometry
+    final static int DIRTY_GEOMETRY = DIRTY_SIZE | DIRTY_SHAPE | DIRTY_SHADOW_SIZE
+            | DIRTY_SHADOW_LAYERS | DIRTY_TESSELLATION;
+    // changes that need other shadow assets
+    final static int DIRTY_ASSETS = DIRTY_SHAPE | DIRTY_SHADOW_SIZE | DIRTY_SHADOW_COLORS
+            | DIRTY_SHADOW_LAYERS;
 
     /*
     * This helper is set by CardView implementations.
@@ -51,137 +107,192 @@ public class RoundRectDrawableWithShadow extends Drawable {
     * Prior to API 17, canvas.drawRoundRect is expensive; which is why we need this interface
     * to draw efficient rounded rectangles before 17.
     * */
-    static RoundRectHelper sRoundRectHelper;
-    final RectF sCornerRect = new RectF();
+    static RoundRectHelper sRoundRectHelper =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                    ? new NativeRoundRectHelper() : new ArcRoundRectHelper();
+
+    /**
+     * Whether the shadow is left to the platform, see {@link #setUseNativeShadows(boolean)}.
+     */
+    private static boolean sUseNativeShadows;
+
+    /**
+     * Detail level of every drawable, see {@link #setGlobalDetailLevel(int)}.
+     */
+    private static volatile int sGlobalDetailLevel = DETAIL_FULL;
+
+    // drawables last drawn at a level lowered by the global level, redrawn when it is raised
+    // again, see setGlobalDetailLevel(). Guards the changes of the global level too.
+    private static final WeakHashMap<RoundRectDrawableWithShadow, Boolean> sLowDetailDrawables =
+            new WeakHashMap<RoundRectDrawableWithShadow, Boolean>();
+
+    // shadow tint filters by color, shared by every drawable since filters are immutable, see
+    // getTintFilter()
+    private static final SparseArray<PorterDuffColorFilter> sTintFilters =
+            new SparseArray<PorterDuffColorFilter>();
+    private static final int MAX_TINT_FILTERS = 64;
 
     Paint mPaint;
 
-    Paint mCornerShadowPaint;
+    // one paint per corner, each bound to the radial shader of its radius
+    final Paint[] mCornerShadowPaints = new Paint[4];
+
+    // one paint per edge rotation, each bound to the matching rotated edge shader
+    final Paint[] mEdgeShadowPaints = new Paint[4];
+
+    // all paints above and the solid edge band paints, indexed as DrawOpBuffer expects
+    final Paint[] mOpPaints = new Paint[DrawOpBuffer.PAINT_COUNT];
 
-    Paint mEdgeShadowPaint;
+    // inner and outer edge band colors of the drawn assets, see setEdgeBandColors()
+    private int[] mEdgeBandColors;
+    private int[] mAmbientEdgeBandColors;
+
+    // shadow paints of the ambient layer, indexed the same way, created for the first layered
+    // shadow
+    Paint[] mAmbientOpPaints;
 
     final RectF mCardBounds;
 
-    float mCornerRadius;
+    // inner outline of the shadow by edge index, and how far each edge lies inside the card
+    private final float[] mShadowOutline = new float[4];
+    private final float[] mShadowExtent = new float[4];
 
+    // corner shadow paths leaving out the card, by layer (key light, then ambient) and corner,
+    // created for the first tessellated build. Whether the compiled shadow leaves out the card.
+    Path[][] mTessellatedCornerPaths;
+    boolean mShadowExcludesCard;
+    private final RectF mScratchOval = new RectF();
 
-    Path mCornerShadowPath;
+    // compiled shadow and card body, replayed by draw(). The ambient layer is drawn first and
+    // stays empty unless the shadow is layered. The shadow buffers belong to the selected
+    // state shadow while there is a state table.
+    DrawOpBuffer mAmbientShadowOps = new DrawOpBuffer();
+    DrawOpBuffer mShadowOps = new DrawOpBuffer();
+    final DrawOpBuffer mBodyOps = new DrawOpBuffer();
 
-    // updated value with inset
-    float mMaxShadowSize;
+    // shadows of the state table entries, see setStateShadows(), the entry selected by the
+    // drawable state and the entry the shadow fields hold, -1 for the regular shadow
+    private StateShadows mStateShadows;
+    private int mStateIndex;
+    private int mShadowIndex = -1;
 
-    // actual value set by developer
-    float mRawMaxShadowSize;
+    ShadowState mState;
 
-    // multiplied value to account for shadow offset
-    float mShadowSize;
+    // reusable keys to look up the asset and nine-patch caches without allocating
+    private final ShadowSpec mSpecKey = new ShadowSpec();
+    private final ShadowBitmapCache.Key mBitmapKey = new ShadowBitmapCache.Key();
 
-    // actual value set by developer
-    float mRawShadowSize;
+    // shared corner path and shaders of the current spec, see ShadowAssets, and the state's
+    // asset generation they were resolved in
+    ShadowAssets mAssets;
+    private int mAssetsGeneration;
 
-    private boolean mDirty = true;
+    // ShadowSpec.ROUND_ shape of the card, detected from its bounds and corner radii, the
+    // corner radii a pill body is drawn with, and the ring radius of the shadow being compiled
+    // as corner radii
+    private int mRoundShape = ShadowSpec.ROUND_NONE;
+    private final float[] mPillRadii = new float[4];
+    private final float[] mRingRadii = new float[4];
 
-    private final int mShadowStartColor;
+    Paint mShadowBitmapPaint;
 
-    private final int mShadowEndColor;
+    // pre-rendered shadow of the current spec when the nine-patch mode is enabled
+    Bitmap mShadowBitmap;
 
-    private boolean mAddPaddingForCorners = true;
+    // nine-patch layout: shadow outside the card and the unstretched part inside it
+    int mShadowBitmapMargin;
+    int mShadowBitmapCornerLeft;
+    int mShadowBitmapCornerRight;
+    int mShadowBitmapCornerTop;
+    int mShadowBitmapCornerBottom;
 
-    /**
-     * If shadow size is set to a value above max shadow, we print a warning
-     */
-    private boolean mPrintedShadowClipWarning = false;
+    final Rect mShadowBitmapSrc = new Rect();
+    final RectF mShadowBitmapDst = new RectF();
+
+    // convex outline of TOP/BOTTOM cards for native shadows
+    private Path mOutlinePath;
+    private float[] mOutlineRadii;
+
+    // running or last finished shadow size animation, see animateShadowSize()
+    private ShadowSizeAnimation mShadowAnimation;
+
+    private int mDirtyFlags = DIRTY_ALL;
+
+    // bounds the geometry was last built for, to detect pure translations
+    private final Rect mBuiltBounds = new Rect();
+
+    // scratch rect for getOpaqueRegion()
+    private final Rect mOpaqueRect = new Rect();
+
+    // clip bounds of the canvas being drawn to
+    private final Rect mClipBounds = new Rect();
+
+    // ops and nine-patch slices left out by the current draw, and ops it scaled, see getClip()
+    private int mCulledCount;
+    private int mScaleCount;
+
+    // number of translations applied to the built geometry
+    private int mOffsetCount;
+
+    private boolean mMutated;
+
+    // alpha and color filter set through the Drawable API, see updateShadowPaints(), and the
+    // body color before the alpha is applied, see setBodyColor()
+    private int mAlpha = 255;
+    ColorFilter mColorFilter;
+    private int mBodyColor;
+
+    // shadow paint generation of the state the shadow paints are set up for
+    private int mShadowPaintsGeneration;
+
+    // created on first use while ShadowStats are enabled
+    private ShadowStats mStats;
+
+    // detail level of this drawable, and the level the paints are set up for
+    private int mDetailLevel = DETAIL_FULL;
+    private int mPaintDetailLevel = DETAIL_FULL;
+
+    // snapshots are drawn in full detail whatever the global level, see ShadowSnapshots
+    boolean mIgnoreGlobalDetailLevel;
+
+    // reused by edit(), and whether an edit is being applied and asked to invalidate
+    private Editor mEditor;
+    private boolean mApplyingEdit;
+    private boolean mInvalidatePending;
 
     public RoundRectDrawableWithShadow(Resources resources, int backgroundColor, float topRadius,
             float bottomRadius, float shadowSize, float maxShadowSize) {
-        mShadowStartColor = resources.getColor(
-                android.support.v7.cardview.R.color.cardview_shadow_start_color);
-        mShadowEndColor = resources.getColor(
-                android.support.v7.cardview.R.color.cardview_shadow_end_color);
-        mInsetShadow = resources.getDimensionPixelSize(
-                android.support.v7.cardview.R.dimen.cardview_compat_inset_shadow);
-        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-        mPaint.setColor(backgroundColor);
+        this(new ShadowState(ShadowResources.get(resources)));
+        setBodyColor(backgroundColor);
+        mState.mBackgroundColor = backgroundColor;
 
         setCornerRadius(topRadius, bottomRadius);
+        setShadowSize(shadowSize, maxShadowSize);
+    }
 
-        mCornerShadowPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-        mCornerShadowPaint.setStyle(Paint.Style.FILL);
-
-        mEdgeShadowPaint = new Paint(mCornerShadowPaint);
+    RoundRectDrawableWithShadow(ShadowState state) {
+        mState = state;
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+        setBodyColor(state.mBackgroundColor);
+
+        mOpPaints[DrawOpBuffer.PAINT_BODY] = mPaint;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            mCornerShadowPaints[rotation] = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+            mCornerShadowPaints[rotation].setStyle(Paint.Style.FILL);
+            mOpPaints[DrawOpBuffer.PAINT_CORNER_SHADOW + rotation] = mCornerShadowPaints[rotation];
+            mEdgeShadowPaints[rotation] = new Paint(mCornerShadowPaints[rotation]);
+            mEdgeShadowPaints[rotation].setAntiAlias(false);
+            mOpPaints[DrawOpBuffer.PAINT_EDGE_SHADOW + rotation] = mEdgeShadowPaints[rotation];
+        }
+        for (int band = 0; band < 2; band++) {
+            // solid axis aligned rects, never anti-aliased nor dithered
+            mOpPaints[DrawOpBuffer.PAINT_EDGE_BAND + band] = new Paint();
+        }
         //mCornerRadius = (int) (radius + .5f);
         mCardBounds = new RectF();
 
-        mEdgeShadowPaint.setAntiAlias(false);
-        setShadowSize(shadowSize, maxShadowSize);
-
-        initHelper();
-    }
-
-    private void initHelper() {
-
-        sRoundRectHelper = new RoundRectHelper() {
-            @Override
-            public void drawRoundRect(Canvas canvas, RectF bounds, float cornerRadius,
-                    Paint paint,TYPE type) {
-                final float twoRadius = cornerRadius * 2;
-                final float innerWidth = bounds.width() - twoRadius - 1;
-                final float innerHeight = bounds.height() - twoRadius - 1;
-
-                float topRadius,bottomRadius;
-                topRadius=bottomRadius= cornerRadius;
-
-                // increment it to account for half pixels.
-                if (cornerRadius >= 1f) {
-                    cornerRadius += .5f;
-                    sCornerRect.set(-cornerRadius, -cornerRadius, cornerRadius, cornerRadius);
-                    int saved = canvas.save();
-                    canvas.translate(bounds.left + cornerRadius, bounds.top + cornerRadius);
-                    if (type == TYPE.TOP) {
-                        canvas.drawArc(sCornerRect, 180, 90, true, paint);
-                        canvas.translate(innerWidth, 0);
-                        //canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 270, 180, true, paint);
-                        bottomRadius = 0;
-                    }else if (type == TYPE.BOTTOM) {
-                        canvas.translate(0, innerHeight);
-                        //canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 360, 270, true, paint);
-                        canvas.translate(innerWidth, 0);
-                        //canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 270, 360, true, paint);
-                        topRadius = 0;
-                    }else if(type==TYPE.ALL){
-                        canvas.drawArc(sCornerRect, 180, 90, true, paint);
-                        canvas.translate(innerWidth, 0);
-                        canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 180, 90, true, paint);
-                        canvas.translate(innerHeight, 0);
-                        canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 180, 90, true, paint);
-                        canvas.translate(innerWidth, 0);
-                        canvas.rotate(90);
-                        canvas.drawArc(sCornerRect, 180, 90, true, paint);
-                    }else{
-                        topRadius = bottomRadius=0;
-                    }
-                    canvas.restoreToCount(saved);
-                    //draw top and bottom pieces
-                    if (type == TYPE.TOP || type == TYPE.ALL) {
-                        canvas.drawRect(bounds.left + cornerRadius - 1f, bounds.top,
-                                bounds.right - cornerRadius + 1f, bounds.top + cornerRadius, paint);
-                    }
-                    if (type == TYPE.BOTTOM || type == TYPE.ALL) {
-                        canvas.drawRect(bounds.left + cornerRadius - 1f,
-                                bounds.bottom - cornerRadius + 1f, bounds.right - cornerRadius + 1f,
-                                bounds.bottom, paint);
-                    }
-                }
-                ////                center
-                canvas.drawRect(bounds.left, bounds.top + Math.max(0, topRadius - 1f),
-                        bounds.right, bounds.bottom - bottomRadius + 1f, paint);
-            }
-        };
+        mShadowBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        updateShadowPaints();
     }
 
     public RoundRectDrawableWithShadow(Resources resources, int backgroundColor, float radius,
@@ -189,10 +300,59 @@ public class RoundRectDrawableWithShadow extends Drawable {
         this(resources, backgroundColor, radius, radius, shadowSize, maxShadowSize);
     }
 
+    /**
+     * Builds the shared shadow assets of the spec, and its nine-patch bitmap if asked to, the
+     * same way a drawable drawing it would. Specs with uniform corners also get the ring
+     * assets of the pill and the circle exactly as tall as two corners, the usual chips and
+     * avatars. May be called from any thread.
+     */
+    static void prepare(Resources resources, CardShadowSpec spec, boolean ninePatchShadow) {
+        final RoundRectDrawableWithShadow drawable = new RoundRectDrawableWithShadow(resources,
+                Color.TRANSPARENT, 0, spec.mShadowSize, spec.mMaxShadowSize);
+        drawable.setSpec(spec);
+        drawable.setNinePatchShadow(ninePatchShadow);
+        // large enough to be drawn as a nine-patch
+        drawable.setBounds(0, 0, 2 * (int) Math.ceil(drawable.getMinWidth()) + 1,
+                2 * (int) Math.ceil(drawable.getMinHeight()) + 1);
+        drawable.ensureComponents();
+
+        final ShadowState state = drawable.mState;
+        if (state.mShadowEdges == EDGE_ALL && state.hasUniformRadii()
+                && state.mCornerRadii[0] >= 1f) {
+            final Rect insets = new Rect();
+            drawable.getShadowInsets(insets);
+            final int diameter = 2 * (int) state.mCornerRadii[0];
+            final int width = insets.left + diameter + insets.right;
+            final int height = insets.top + diameter + insets.bottom;
+            drawable.setBounds(0, 0, width + 1, height);
+            drawable.ensureComponents();
+            drawable.setBounds(0, 0, width, height);
+            drawable.ensureComponents();
+        }
+    }
+
+    /**
+     * Applies the corner radii, shadow edges, shadow sizes, shadow layers and falloff of the
+     * spec.
+     */
+    public void setSpec(CardShadowSpec spec) {
+        final float[] radii = spec.mCornerRadii;
+        setShape(radii[CORNER_TOP_LEFT], radii[CORNER_TOP_RIGHT], radii[CORNER_BOTTOM_RIGHT],
+                radii[CORNER_BOTTOM_LEFT], spec.mShadowEdges);
+        setShadowSize(spec.mShadowSize, spec.mMaxShadowSize);
+        if (spec.mLayered) {
+            setShadowLayers(spec.mAmbientColor, spec.mAmbientOffset, spec.mKeyColor,
+                    spec.mKeyOffset);
+        } else {
+            clearShadowLayers();
+        }
+        setGaussianFalloff(spec.mGaussianFalloff);
+    }
+
     /**
      * Casts the value to an even integer.
      */
-    private int toEven(float value) {
+    static int toEven(float value) {
         int i = (int) (value + .5f);
         if (i % 2 == 1) {
             return i - 1;
@@ -201,25 +361,205 @@ public class RoundRectDrawableWithShadow extends Drawable {
     }
 
     public void setAddPaddingForCorners(boolean addPaddingForCorners) {
-        mAddPaddingForCorners = addPaddingForCorners;
+        mState.mAddPaddingForCorners = addPaddingForCorners;
+        mState.mMetrics = null;
         invalidateSelf();
     }
 
     @Override
     public void setAlpha(int alpha) {
-        mPaint.setAlpha(alpha);
-        if (mCornerShadowPaint != null) mCornerShadowPaint.setAlpha(alpha);
-        //mCornerShadowPaint.setAlpha(alpha);
-        mEdgeShadowPaint.setAlpha(alpha);
+        if (mAlpha == alpha) {
+            return;
+        }
+        mAlpha = alpha;
+        setBodyColor(mBodyColor);
+        updateShadowPaints();
+        invalidateSelf();
+    }
+
+    /**
+     * Sets the color of the body paint, with its alpha scaled by the drawable alpha.
+     */
+    private void setBodyColor(int color) {
+        mBodyColor = color;
+        mPaint.setColor(color);
+        if (mAlpha != 255) {
+            mPaint.setAlpha((Color.alpha(color) * mAlpha + 127) / 255);
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    /**
+     * Fades the shadow on its own, on top of {@link #setAlpha(int)}. Only changes the shadow
+     * paints, so it is cheap enough to animate.
+     */
+    public void setShadowAlpha(int alpha) {
+        if (alpha < 0 || alpha > 255) {
+            throw new IllegalArgumentException("invalid shadow alpha");
+        }
+        if (mState.mShadowAlpha == alpha) {
+            return;
+        }
+        mState.mShadowAlpha = alpha;
+        mState.mShadowPaintsGeneration++;
+        updateShadowPaints();
+        invalidateSelf();
+    }
+
+    public int getShadowAlpha() {
+        return mState.mShadowAlpha;
+    }
+
+    /**
+     * Recolors the shadow, layers included: every shadow pixel takes the color, with its alpha
+     * scaled by the alpha of the color, so the shadow keeps its falloff. Applied as a color
+     * filter on the shadow paints, so the gradients are not rebuilt and cached nine-patch
+     * shadows stay shared. A color filter set through {@link #setColorFilter(ColorFilter)}
+     * replaces the tint while set.
+     * <p>
+     * Filters are cached by color, so animating the tint back and forth allocates nothing once
+     * every color has been seen.
+     */
+    public void setShadowTint(int color) {
+        final ShadowState state = mState;
+        if (state.mShadowTint != null && state.mShadowTintColor == color) {
+            return;
+        }
+        state.mShadowTintColor = color;
+        state.mShadowTint = getTintFilter(color);
+        state.mShadowPaintsGeneration++;
+        updateShadowPaints();
+        invalidateSelf();
+    }
+
+    /**
+     * Goes back to the shadow colors, see {@link #setShadowTint(int)}.
+     */
+    public void clearShadowTint() {
+        if (mState.mShadowTint == null) {
+            return;
+        }
+        mState.mShadowTint = null;
+        mState.mShadowPaintsGeneration++;
+        updateShadowPaints();
+        invalidateSelf();
+    }
+
+    /**
+     * Returns the shared filter tinting shadows the given color, creating it on first use.
+     */
+    private static PorterDuffColorFilter getTintFilter(int color) {
+        synchronized (sTintFilters) {
+            PorterDuffColorFilter filter = sTintFilters.get(color);
+            if (filter == null) {
+                if (sTintFilters.size() >= MAX_TINT_FILTERS) {
+                    sTintFilters.clear();
+                }
+                filter = new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN);
+                sTintFilters.put(color, filter);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Applies the drawable alpha and shadow alpha, and the color filter or else the shadow
+     * tint, to every shadow paint.
+     */
+    private void updateShadowPaints() {
+        final ShadowState state = mState;
+        final int alpha = getShadowPaintAlpha();
+        final ColorFilter cf = mColorFilter != null ? mColorFilter : state.mShadowTint;
+        setShadowAlphaAndColorFilter(alpha, cf);
+        mShadowBitmapPaint.setAlpha(alpha);
+        mShadowBitmapPaint.setColorFilter(cf);
+        mShadowPaintsGeneration = state.mShadowPaintsGeneration;
+    }
+
+    private int getShadowPaintAlpha() {
+        return (mAlpha * mState.mShadowAlpha + 127) / 255;
     }
 
     @Override
     protected void onBoundsChange(Rect bounds) {
         super.onBoundsChange(bounds);
-        mDirty = true;
+        if ((mDirtyFlags & DIRTY_GEOMETRY) == 0 && !mBuiltBounds.isEmpty()
+                && bounds.width() == mBuiltBounds.width()
+                && bounds.height() == mBuiltBounds.height()) {
+            // moved only, shift what has been built
+            final int dx = bounds.left - mBuiltBounds.left;
+            final int dy = bounds.top - mBuiltBounds.top;
+            if (dx != 0 || dy != 0) {
+                mBuiltBounds.offset(dx, dy);
+                mCardBounds.offset(dx, dy);
+                offsetShadowOps(dx, dy);
+                mBodyOps.offset(dx, dy);
+                mOffsetCount++;
+            }
+        } else {
+            mDirtyFlags |= DIRTY_SIZE;
+        }
+    }
+
+    private void offsetShadowOps(int dx, int dy) {
+        if (mStateShadows == null) {
+            mAmbientShadowOps.offset(dx, dy);
+            mShadowOps.offset(dx, dy);
+        } else {
+            // the shadow fields point at one of them
+            mStateShadows.offset(dx, dy);
+        }
+    }
+
+    /**
+     * Starts changing several properties at once. Nothing changes until
+     * {@link Editor#apply()}, which checks every value first, then applies them all with a
+     * single rebuild and a single invalidation.
+     * <p>
+     * The editor starts from the current properties and is reused by every call, so binding a
+     * recycled view allocates nothing.
+     */
+    public Editor edit() {
+        if (mEditor == null) {
+            mEditor = new Editor();
+        }
+        mEditor.reset();
+        return mEditor;
+    }
+
+    @Override
+    public void invalidateSelf() {
+        if (mApplyingEdit) {
+            mInvalidatePending = true;
+            return;
+        }
+        super.invalidateSelf();
+    }
+
+    /**
+     * Returns how many times the built geometry has been moved instead of being rebuilt,
+     * because the bounds only moved.
+     */
+    public int getOffsetCount() {
+        return mOffsetCount;
+    }
+
+    /**
+     * Returns the counters of this drawable, updated while {@link ShadowStats} are enabled.
+     */
+    public ShadowStats getStats() {
+        if (mStats == null) {
+            mStats = new ShadowStats();
+        }
+        return mStats;
     }
 
     void setShadowSize(float shadowSize, float maxShadowSize) {
+        cancelShadowAnimation();
         if (shadowSize < 0 || maxShadowSize < 0) {
             throw new IllegalArgumentException("invalid shadow size");
         }
@@ -227,49 +567,35 @@ public class RoundRectDrawableWithShadow extends Drawable {
         maxShadowSize = toEven(maxShadowSize);
         if (shadowSize > maxShadowSize) {
             shadowSize = maxShadowSize;
-            if (!mPrintedShadowClipWarning) {
-                mPrintedShadowClipWarning = true;
-            }
         }
-        if (mRawShadowSize == shadowSize && mRawMaxShadowSize == maxShadowSize) {
+        final ShadowState state = mState;
+        if (state.mRawShadowSize == shadowSize && state.mRawMaxShadowSize == maxShadowSize) {
             return;
         }
-        mRawShadowSize = shadowSize;
-        mRawMaxShadowSize = maxShadowSize;
-        mShadowSize = (int) (shadowSize * SHADOW_MULTIPLIER + mInsetShadow + .5f);
-        mMaxShadowSize = maxShadowSize + mInsetShadow;
-        mDirty = true;
+        state.mRawShadowSize = shadowSize;
+        state.mRawMaxShadowSize = maxShadowSize;
+        state.mMetrics = null;
+        state.mShadowSize = state.multipliedShadowSize(shadowSize);
+        state.mMaxShadowSize = maxShadowSize + state.mInsetShadow;
+        state.invalidateAssets();
+        mDirtyFlags |= DIRTY_SHADOW_SIZE;
         invalidateSelf();
     }
 
     @Override
     public boolean getPadding(Rect padding) {
-        float rad;
-        int vTopOffset, vBottomOffset;
-
-        if (mType == TYPE.TOP) {
-            rad = mCornerRadius;
-            vTopOffset = (int) Math.ceil(calculateVerticalPadding(mRawMaxShadowSize, rad,
-                    mAddPaddingForCorners));
-            vBottomOffset = 0;
-        } else if (mType == TYPE.BOTTOM) {
-            rad = mCornerRadius;
-            vTopOffset = 0;
-            vBottomOffset = (int) Math.ceil(calculateVerticalPadding(mRawMaxShadowSize, rad,
-                    mAddPaddingForCorners));
-
-        } else {
-            rad = mCornerRadius;
-            vTopOffset = vBottomOffset = (int) Math.ceil(calculateVerticalPadding(mRawMaxShadowSize,
-                    rad, mAddPaddingForCorners));
-        }
-        int hOffset = (int) Math.ceil(calculateHorizontalPadding(mRawMaxShadowSize, rad,
-                mAddPaddingForCorners));
-
-        padding.set(hOffset, vTopOffset, hOffset, vBottomOffset);
+        mState.getMetrics().getPadding(padding);
         return true;
     }
 
+    /**
+     * Returns the padding and minimum size of the current shape and max shadow size, computed
+     * once until either changes.
+     */
+    public ShadowMetrics getMetrics() {
+        return mState.getMetrics();
+    }
+
     static float calculateVerticalPadding(float maxShadowSize, float cornerRadius,
             boolean addPaddingForCorners) {
         if (addPaddingForCorners) {
@@ -290,305 +616,1955 @@ public class RoundRectDrawableWithShadow extends Drawable {
 
     @Override
     public void setColorFilter(ColorFilter cf) {
+        if (mColorFilter == cf) {
+            return;
+        }
+        mColorFilter = cf;
         mPaint.setColorFilter(cf);
-        if (mCornerShadowPaint != null) mCornerShadowPaint.setColorFilter(cf);
-        //mCornerShadowPaint.setColorFilter(cf);
-        mEdgeShadowPaint.setColorFilter(cf);
+        updateShadowPaints();
+        invalidateSelf();
     }
 
-    @Override
-    public int getOpacity() {
-        return PixelFormat.TRANSLUCENT;
+    /**
+     * When enabled, the shadow of each spec is rendered once into a small bitmap kept in the
+     * {@link ShadowBitmapCache} and drawn as a stretched nine-patch instead of rasterizing the
+     * corner paths and edge gradients on every draw. Cards too small to stretch the bitmap fall
+     * back to regular drawing.
+     */
+    public void setNinePatchShadow(boolean ninePatchShadow) {
+        if (mState.mNinePatchShadow == ninePatchShadow) {
+            return;
+        }
+        mState.mNinePatchShadow = ninePatchShadow;
+        mDirtyFlags |= DIRTY_NINE_PATCH;
+        invalidateSelf();
     }
 
-    public void setCornerRadius(float topRadius, float bottomRadius) {
-        topRadius = (int) (topRadius + .5f);
-        bottomRadius = (int) (bottomRadius + .5f);
+    public boolean isNinePatchShadow() {
+        return mState.mNinePatchShadow;
+    }
+
+    /**
+     * When enabled, the shadow is drawn from a bitmap rendered once, below the card body.
+     * Changes to the body color, alpha or filter, to the shadow tint or alpha and moves then
+     * only repaint the body: the shadow is rendered again only when its geometry changes.
+     * <p>
+     * The bitmap only covers the shadow margins and corners, like the one of
+     * {@link #setNinePatchShadow(boolean)}, and is shared the same way; each state table entry
+     * keeps its own, so state changes don't render anything either. Meant for cards animating
+     * their body, such as selection highlights. Cards too small to stretch the bitmap and
+     * shadow size animations draw the shadow directly.
+     */
+    public void setCachedShadowLayer(boolean cachedShadowLayer) {
+        if (mState.mCachedShadowLayer == cachedShadowLayer) {
+            return;
+        }
+        mState.mCachedShadowLayer = cachedShadowLayer;
+        mDirtyFlags |= DIRTY_NINE_PATCH;
+        invalidateSelf();
+    }
+
+    public boolean isCachedShadowLayer() {
+        return mState.mCachedShadowLayer;
+    }
+
+    /**
+     * When enabled, the card body and the shadow ring are split into pieces that don't overlap,
+     * so every pixel is written at most once, for GPUs limited by fill rate:
+     * <ul>
+     * <li>the body is drawn from arcs and rects meeting on pixel boundaries instead of
+     * overlapping each other to hide seams, with the same radii as
+     * {@link Canvas#drawRoundRect(RectF, float, float, Paint)};</li>
+     * <li>while the body is opaque, the shadow stops at the card edge instead of running on
+     * beneath the body.</li>
+     * </ul>
+     * Applies to the compiled shadow; the nine-patch and cached layer modes draw bitmaps.
+     */
+    public void setTessellated(boolean tessellated) {
+        if (mState.mTessellated == tessellated) {
+            return;
+        }
+        mState.mTessellated = tessellated;
+        mDirtyFlags |= DIRTY_TESSELLATION;
+        invalidateSelf();
+    }
+
+    public boolean isTessellated() {
+        return mState.mTessellated;
+    }
+
+    /**
+     * When enabled, the shadow fades out like a Gaussian blur instead of linearly, for softer
+     * and more realistic shadows. The blur profile is sampled once into multi-stop gradients,
+     * so drawing costs the same as with the linear falloff; only the gradients are built again.
+     */
+    public void setGaussianFalloff(boolean gaussianFalloff) {
+        final ShadowState state = mState;
+        if (state.mGaussianFalloff == gaussianFalloff) {
+            return;
+        }
+        cancelShadowAnimation();
+        state.mGaussianFalloff = gaussianFalloff;
+        state.invalidateAssets();
+        mDirtyFlags |= DIRTY_SHADOW_COLORS;
+        invalidateSelf();
+    }
+
+    public boolean isGaussianFalloff() {
+        return mState.mGaussianFalloff;
+    }
+
+    /**
+     * Makes the shadow size and the card color follow the drawable state, for cards that rise
+     * when pressed, focused or dragged.
+     * <p>
+     * Entries are matched in order like a {@link android.content.res.ColorStateList}, so the
+     * default entry, with an empty state spec, goes last; the last entry is also used when no
+     * entry matches. The shadows of all entries are built up front, and again when the bounds
+     * or the shape change, so a state change only switches to the shadow of another entry. The
+     * regular shadow size and color are ignored until {@link #clearStateShadows()}, and the
+     * shadow size can't be animated meanwhile.
+     *
+     * @param stateSpecs state spec of each entry, as in {@link StateSet#stateSetMatches}
+     * @param shadowSizes shadow size of each entry, clipped to the max shadow size
+     * @param colors card color of each entry
+     */
+    public void setStateShadows(int[][] stateSpecs, float[] shadowSizes, int[] colors) {
+        final int count = stateSpecs.length;
+        if (count == 0 || shadowSizes.length != count || colors.length != count) {
+            throw new IllegalArgumentException("invalid state shadows");
+        }
+        final float[] sizes = new float[count];
+        for (int i = 0; i < count; i++) {
+            if (shadowSizes[i] < 0) {
+                throw new IllegalArgumentException("invalid shadow size");
+            }
+            sizes[i] = toEven(shadowSizes[i]);
+        }
+        cancelShadowAnimation();
+        final ShadowState state = mState;
+        state.mStateSpecs = stateSpecs.clone();
+        state.mStateShadowSizes = sizes;
+        state.mStateColors = colors.clone();
+        state.mStateAssets = new ShadowAssets[count];
+        // drawables sharing the state pick the table up too
+        state.invalidateAssets();
+        setUpStateShadows();
+        invalidateSelf();
+    }
 
-        if (topRadius == bottomRadius && mCornerRadius == topRadius && mCornerRadius>0) {
+    /**
+     * Goes back to the regular shadow size and card color.
+     */
+    public void clearStateShadows() {
+        final ShadowState state = mState;
+        if (state.mStateSpecs == null) {
             return;
         }
-        if (topRadius == bottomRadius && topRadius > 0) {
-            mCornerRadius = topRadius;
-            mType = TYPE.ALL;
-        } else if (topRadius > 0) {
-            mCornerRadius = topRadius;
-            mType = TYPE.TOP;
-        } else if(bottomRadius>0){
-            mCornerRadius = bottomRadius;
-            mType = TYPE.BOTTOM;
-        }else{
-            mCornerRadius = 0;
-            mType = TYPE.NONE;
-        }
-
-        mDirty = true;
+        state.mStateSpecs = null;
+        state.mStateShadowSizes = null;
+        state.mStateColors = null;
+        state.mStateAssets = null;
+        setUpStateShadows();
         invalidateSelf();
     }
 
+    public boolean hasStateShadows() {
+        return mState.mStateSpecs != null;
+    }
+
     @Override
-    public void draw(Canvas canvas) {
-        if (mDirty) {
-            buildComponents(getBounds());
-            mDirty = false;
-        }
-        canvas.translate(0, mRawShadowSize / 2);
-        drawShadow(canvas);
-        canvas.translate(0, -mRawShadowSize / 2);
-        sRoundRectHelper.drawRoundRect(canvas, mCardBounds, mCornerRadius, mPaint,mType);
-    }
-
-    private void drawShadow(Canvas canvas) {
-        final float edgeShadowTop = -mCornerRadius - mShadowSize;
-        final float inset = mCornerRadius + mInsetShadow + mRawShadowSize / 2;
-        final boolean drawHorizontalEdges = mCardBounds.width() - 2 * inset > 0;
-        final boolean drawVerticalEdges = mCardBounds.height() - 2 * inset > 0;
-
-        int saved = canvas.save();
-        if(mType==TYPE.TOP){
-            // LT
-            canvas.translate(mCardBounds.left + inset, mCardBounds.top + inset);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawHorizontalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.width() - 2 * inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            // RT
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.top + inset);
-            canvas.rotate(90f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.height(), -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            saved = canvas.save();
-            canvas.translate(mCardBounds.left + inset, mCardBounds.bottom);
-            canvas.rotate(270f);
-            if (drawVerticalEdges) {
-                canvas.drawRect(- mInsetShadow, edgeShadowTop, mCardBounds.height() - inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-        }else if(mType==TYPE.BOTTOM){
-            // LB
-            saved = canvas.save();
-            canvas.translate(mCardBounds.left + inset, mCardBounds.bottom - inset);
-            canvas.rotate(270f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.bottom, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            // RB
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.bottom - inset);
-            canvas.rotate(180f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawHorizontalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.width() - 2 * inset,
-                        /*-mCornerRadius + mCornerRadius +*/ mInsetShadow-(mCornerRadius/2), mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.top);
-            canvas.rotate(90f);
-            if (drawVerticalEdges) {
-                canvas.drawRect(-2*mCornerRadius-mInsetShadow, edgeShadowTop, mCardBounds.height() - inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-        }else if(mType==TYPE.ALL){
-            // LT
-            canvas.translate(mCardBounds.left + inset, mCardBounds.top + inset);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawHorizontalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.width() - 2 * inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            // RB
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.bottom - inset);
-            canvas.rotate(180f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawHorizontalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.width() - 2 * inset,
-                        -mCornerRadius + mShadowSize, mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            // LB
-            saved = canvas.save();
-            canvas.translate(mCardBounds.left + inset, mCardBounds.bottom - inset);
-            canvas.rotate(270f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.height() - 2 * inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            // RT
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.top + inset);
-            canvas.rotate(90f);
-            canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.height() - 2 * inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-        }else{
-            saved = canvas.save();
-            canvas.translate(mCardBounds.left + inset, mCardBounds.bottom);
-            canvas.rotate(270f);
-            //canvas.drawPath(mCornerShadowPath, mCornerShadowPaint);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.bottom+inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-
-            saved = canvas.save();
-            canvas.translate(mCardBounds.right - inset, mCardBounds.top-inset);
-            canvas.rotate(90f);
-            if (drawVerticalEdges) {
-                canvas.drawRect(0, edgeShadowTop, mCardBounds.bottom+inset, -mCornerRadius,
-                        mEdgeShadowPaint);
-            }
-            canvas.restoreToCount(saved);
-        }
-    }
-
-    private void buildShadowCorners() {
-        float hRad = mCornerRadius;
-        float vTRad = 0, vBRad = 0;
-
-        switch (mType) {
-            case ALL:
-                vTRad = vBRad = mCornerRadius;
-                break;
-            case TOP:
-                vTRad = mCornerRadius;
-                vBRad = 0;
-                break;
-            case BOTTOM:
-                vTRad = 0;
-                vBRad = mCornerRadius;
-                break;
-        }
-
-        RectF innerBounds = new RectF(-hRad, -vTRad, hRad, vBRad);
-        RectF outerBounds = new RectF(innerBounds);
-        outerBounds.inset(-mShadowSize, -mShadowSize);
-
-        if (mCornerShadowPath == null) {
-            mCornerShadowPath = new Path();
-        } else {
-            mCornerShadowPath.reset();
-        }
-        mCornerShadowPath.setFillType(Path.FillType.EVEN_ODD);
-        mCornerShadowPath.moveTo(-hRad, 0);
-        mCornerShadowPath.rLineTo(-mShadowSize, 0);
-        // outer arc
-        mCornerShadowPath.arcTo(outerBounds, 180f, 90f, false);
-        // inner arc
-        mCornerShadowPath.arcTo(innerBounds, 270f, -90f, false);
-        mCornerShadowPath.close();
-
-        float startRatio = mCornerRadius / (mCornerRadius + mShadowSize);
-        mCornerShadowPaint.setShader(new RadialGradient(0, 0, mCornerRadius + mShadowSize,
-                new int[]{mShadowStartColor, mShadowStartColor, mShadowEndColor},
-                new float[]{0f, startRatio, 1f}, Shader.TileMode.CLAMP));
-        // we offset the content shadowSize/2 pixels up to make it more realistic.
-        // this is why edge shadow shader has some extra space
-        // When drawing bottom edge shadow, we use that extra space.
-        mEdgeShadowPaint.setShader(new LinearGradient(0, -mCornerRadius + mShadowSize, 0,
-                -mCornerRadius - mShadowSize,
-                new int[]{mShadowStartColor, mShadowStartColor, mShadowEndColor},
-                new float[]{0f, .5f, 1f}, Shader.TileMode.CLAMP));
-
-        mEdgeShadowPaint.setAntiAlias(false);
-    }
-
-    private void buildComponents(Rect bounds) {
-        // Card is offset SHADOW_MULTIPLIER * maxShadowSize to account for the shadow shift.
-        // We could have different top-bottom offsets to avoid extra gap above but in that case
-        // center aligning Views inside the CardView would be problematic.
-        float vTopOff = 0, vBottomOff = 0;
-        final float verticalOffset = mRawMaxShadowSize * SHADOW_MULTIPLIER;
-        switch (mType) {
-            case ALL:
-                vTopOff = vBottomOff = verticalOffset;
-                break;
-            case TOP:
-                vTopOff = verticalOffset;
-                vBottomOff = 0;
-                break;
-            case BOTTOM:
-                vTopOff = 0;
-                vBottomOff = verticalOffset;
-                break;
-        }
-
-        mCardBounds.set(bounds.left + mRawMaxShadowSize, bounds.top + vTopOff,
-                bounds.right - mRawMaxShadowSize, bounds.bottom - vBottomOff);
-        buildShadowCorners();
+    public boolean isStateful() {
+        return mState.mStateSpecs != null;
     }
 
-    float getCornerRadius() {
-        return mCornerRadius;
+    @Override
+    protected boolean onStateChange(int[] stateSet) {
+        if (mState.mStateSpecs == null) {
+            return false;
+        }
+        if (!hasStateShadowsSetUp()) {
+            setUpStateShadows();
+            return true;
+        }
+        final int index = StateShadows.findIndex(mState.mStateSpecs, stateSet);
+        if (index == mStateIndex) {
+            return false;
+        }
+        mStateIndex = index;
+        setBodyColor(mState.mStateColors[index]);
+        if (mDirtyFlags == 0) {
+            // built already, otherwise the next build ends on the selected entry
+            selectShadow(index);
+        }
+        invalidateSelf();
+        return true;
     }
 
-    void getMaxShadowAndCornerPadding(Rect into) {
-        getPadding(into);
+    private boolean hasStateShadowsSetUp() {
+        final int[][] specs = mState.mStateSpecs;
+        return specs == null ? mStateShadows == null
+                : mStateShadows != null && mStateShadows.size() == specs.length;
     }
 
-    void setShadowSize(float size) {
-        setShadowSize(size, mRawMaxShadowSize);
+    /**
+     * Allocates the entry shadows of the state table of the state, or drops them if there is
+     * none, and selects the entry of the current drawable state.
+     */
+    private void setUpStateShadows() {
+        final ShadowState state = mState;
+        if (state.mStateSpecs == null) {
+            mStateShadows = null;
+            mShadowIndex = -1;
+            // the buffers of the last selected entry are reused for the regular shadow
+            setBodyColor(state.mBackgroundColor);
+        } else {
+            mStateShadows = new StateShadows(state.mStateSpecs.length);
+            mStateIndex = StateShadows.findIndex(state.mStateSpecs, getState());
+            setBodyColor(state.mStateColors[mStateIndex]);
+        }
+        mDirtyFlags |= DIRTY_ALL;
     }
 
-    void setMaxShadowSize(float size) {
-        setShadowSize(mRawShadowSize, size);
+    /**
+     * Builds the shadow of every state table entry, then selects the entry of the drawable
+     * state.
+     */
+    private void buildStateShadows(Rect bounds, int dirtyFlags) {
+        final StateShadows shadows = mStateShadows;
+        for (int i = 0; i < shadows.size(); i++) {
+            selectShadow(i);
+            if (i == 0) {
+                buildComponents(bounds, dirtyFlags);
+            } else {
+                // the card bounds and body don't depend on the entry
+                buildShadowCorners(dirtyFlags);
+            }
+            shadows.save(i, this);
+        }
+        selectShadow(mStateIndex);
     }
 
-    float getShadowSize() {
-        return mRawShadowSize;
+    /**
+     * Points the shadow fields at the built shadow of a state table entry, without allocating.
+     */
+    private void selectShadow(int index) {
+        mShadowIndex = index;
+        mStateShadows.select(index, this);
+        if (mAssets != null) {
+            setShadowShaders(mAssets);
+        }
     }
 
-    float getMaxShadowSize() {
-        return mRawMaxShadowSize;
+    /**
+     * Draws the shadow in two layers: an ambient shadow below the card, and the shadow of a key
+     * light above it. Each layer fades from its color at the card edge to transparent, and is
+     * shifted down by its offset, a fraction of the shadow size between 0 and 0.5.
+     * <p>
+     * Both layers are composited once per spec into the nine-patch shadow bitmap (see
+     * {@link #setNinePatchShadow(boolean)}, which layered shadows always use), so a layered
+     * shadow costs a single shadow draw. Cards too small for a nine-patch and shadow size
+     * animations draw the two layers one after the other.
+     *
+     * @param ambientColor color of the ambient layer, transparent for no ambient layer
+     */
+    public void setShadowLayers(int ambientColor, float ambientOffset, int keyColor,
+            float keyOffset) {
+        if (ambientOffset < 0 || ambientOffset > MAX_SHADOW_OFFSET || keyOffset < 0
+                || keyOffset > MAX_SHADOW_OFFSET) {
+            throw new IllegalArgumentException("invalid shadow offset");
+        }
+        final boolean ambient = Color.alpha(ambientColor) != 0;
+        setShadowLayers(keyColor, fadeOut(keyColor), keyOffset,
+                ambient ? ambientColor : 0, ambient ? fadeOut(ambientColor) : 0,
+                ambient ? ambientOffset : 0);
     }
 
-    float getMinWidth() {
-        final float content = 2 * Math.max(mRawMaxShadowSize,
-                mCornerRadius + mInsetShadow + mRawMaxShadowSize / 2);
-        return content + (mRawMaxShadowSize + mInsetShadow) * 2;
+    /**
+     * Goes back to the single shadow of the card view theme.
+     */
+    public void clearShadowLayers() {
+        final ShadowState state = mState;
+        setShadowLayers(state.mDefaultShadowStartColor, state.mDefaultShadowEndColor,
+                DEFAULT_SHADOW_OFFSET, 0, 0, 0);
     }
 
-    float getMinHeight() {
-        final float content = 2 * Math.max(mRawMaxShadowSize,
-                mCornerRadius + mInsetShadow + mRawMaxShadowSize * SHADOW_MULTIPLIER / 2);
-        return content + (mRawMaxShadowSize * SHADOW_MULTIPLIER + mInsetShadow) * 2;
+    public boolean hasShadowLayers() {
+        return mState.hasAmbientShadow();
     }
 
-    public void setColor(int color) {
-        mPaint.setColor(color);
+    private void setShadowLayers(int startColor, int endColor, float offset,
+            int ambientStartColor, int ambientEndColor, float ambientOffset) {
+        final ShadowState state = mState;
+        if (state.mShadowStartColor == startColor && state.mShadowEndColor == endColor
+                && state.mShadowOffset == offset
+                && state.mAmbientShadowStartColor == ambientStartColor
+                && state.mAmbientShadowEndColor == ambientEndColor
+                && state.mAmbientShadowOffset == ambientOffset) {
+            return;
+        }
+        cancelShadowAnimation();
+        state.mShadowStartColor = startColor;
+        state.mShadowEndColor = endColor;
+        state.mShadowOffset = offset;
+        state.mAmbientShadowStartColor = ambientStartColor;
+        state.mAmbientShadowEndColor = ambientEndColor;
+        state.mAmbientShadowOffset = ambientOffset;
+        state.invalidateAssets();
+        mDirtyFlags |= DIRTY_SHADOW_LAYERS;
         invalidateSelf();
     }
 
-    static interface RoundRectHelper {
-        void drawRoundRect(Canvas canvas, RectF bounds, float cornerRadius, Paint paint, TYPE type);
+    /**
+     * Returns the color with its alpha cleared, the far end of a shadow gradient.
+     */
+    private static int fadeOut(int color) {
+        return color & 0x00ffffff;
+    }
+
+    /**
+     * Leaves the shadow to the platform on API 21+: the drawable only draws the card body and
+     * reports its shape through {@link #getOutline(Outline)}, so the RenderThread draws the
+     * elevation shadow of the view. The view needs an elevation for a shadow to show up; the
+     * padding still accounts for the max shadow size. Has no effect before API 21.
+     * <p>
+     * Meant to be set once, before drawables are created.
+     */
+    public static void setUseNativeShadows(boolean useNativeShadows) {
+        sUseNativeShadows = useNativeShadows;
+    }
+
+    /**
+     * Lowers the detail level of every drawable, typically while a list flings and nobody can
+     * tell anti-aliased corners apart. Drawables pick the level up on their next draw, and
+     * draw at the higher of the global level and their own.
+     * <p>
+     * Raising the level again, such as back to {@link #DETAIL_FULL} when scrolling settles,
+     * invalidates every drawable drawn at a lower level meanwhile, so that none keeps showing
+     * its last low detail frame. Call on the UI thread.
+     *
+     * @param level one of the DETAIL_ constants
+     */
+    public static void setGlobalDetailLevel(int level) {
+        checkDetailLevel(level);
+        final Object[] drawables;
+        synchronized (sLowDetailDrawables) {
+            final int previous = sGlobalDetailLevel;
+            sGlobalDetailLevel = level;
+            if (level >= previous) {
+                return;
+            }
+            drawables = sLowDetailDrawables.keySet().toArray();
+            if (level == DETAIL_FULL) {
+                sLowDetailDrawables.clear();
+            }
+        }
+        for (Object drawable : drawables) {
+            ((RoundRectDrawableWithShadow) drawable).invalidateSelf();
+        }
+    }
+
+    public static int getGlobalDetailLevel() {
+        return sGlobalDetailLevel;
+    }
+
+    /**
+     * Lowers the detail level of this drawable, see {@link #setGlobalDetailLevel(int)}.
+     * Shadow bitmaps, shared nine-patches and cached layers alike, are always rendered in full
+     * detail, so lower levels never leave lasting artifacts.
+     *
+     * @param level one of the DETAIL_ constants
+     */
+    public void setDetailLevel(int level) {
+        if (mDetailLevel == checkDetailLevel(level)) {
+            return;
+        }
+        mDetailLevel = level;
+        invalidateSelf();
+    }
+
+    public int getDetailLevel() {
+        return mDetailLevel;
+    }
+
+    private static int checkDetailLevel(int level) {
+        if (level < DETAIL_FULL || level > DETAIL_BODY_ONLY) {
+            throw new IllegalArgumentException("invalid detail level");
+        }
+        return level;
+    }
+
+    /**
+     * Sets the quality flags of all paints up for the given detail level.
+     */
+    private void setPaintDetailLevel(int level) {
+        final boolean full = level == DETAIL_FULL;
+        mPaint.setAntiAlias(full);
+        mPaint.setDither(full);
+        for (int rotation = 0; rotation < 4; rotation++) {
+            mCornerShadowPaints[rotation].setAntiAlias(full);
+            mCornerShadowPaints[rotation].setDither(full);
+            // edges are axis aligned rects, never anti-aliased
+            mEdgeShadowPaints[rotation].setDither(full);
+        }
+        if (mAmbientOpPaints != null) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                mAmbientOpPaints[DrawOpBuffer.PAINT_CORNER_SHADOW + rotation].setAntiAlias(full);
+                mAmbientOpPaints[DrawOpBuffer.PAINT_CORNER_SHADOW + rotation].setDither(full);
+                mAmbientOpPaints[DrawOpBuffer.PAINT_EDGE_SHADOW + rotation].setDither(full);
+            }
+        }
+        mShadowBitmapPaint.setFilterBitmap(full);
+        mShadowBitmapPaint.setDither(full);
+        mPaintDetailLevel = level;
+    }
+
+    static boolean isNativeShadowMode() {
+        return sUseNativeShadows && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public void getOutline(Outline outline) {
+        if (!isNativeShadowMode()) {
+            super.getOutline(outline);
+            return;
+        }
+        ensureComponents();
+        final RectF card = mCardBounds;
+        final float[] radii = mState.mCornerRadii;
+        if (mState.hasUniformRadii()) {
+            outline.setRoundRect((int) card.left, (int) card.top, (int) card.right,
+                    (int) card.bottom, radii[0]);
+        } else {
+            if (mOutlinePath == null) {
+                mOutlinePath = new Path();
+                mOutlineRadii = new float[8];
+            }
+            // x/y radii of the top left, top right, bottom right and bottom left corners
+            for (int corner = 0; corner < 4; corner++) {
+                mOutlineRadii[2 * corner] = mOutlineRadii[2 * corner + 1] = radii[corner];
+            }
+            mOutlinePath.rewind();
+            mOutlinePath.addRoundRect(card, mOutlineRadii, Path.Direction.CW);
+            outline.setConvexPath(mOutlinePath);
+        }
+        outline.setAlpha(Color.alpha(mPaint.getColor()) / 255f * mState.mShadowAlpha / 255f);
+    }
+
+    @Override
+    public int getOpacity() {
+        final ShadowState state = mState;
+        final boolean shadowHidden = isNativeShadowMode() || getShadowPaintAlpha() == 0;
+        if (mPaint.getAlpha() == 0 && mPaint.getColorFilter() == null && shadowHidden) {
+            return PixelFormat.TRANSPARENT;
+        }
+        // only a square card without shadow margins covers all of its bounds
+        if (isBodyOpaque() && state.getMaxCornerRadius() == 0
+                && (state.mShadowEdges == 0 || state.mRawMaxShadowSize == 0)) {
+            return PixelFormat.OPAQUE;
+        }
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * Whether every pixel of the card body is drawn fully opaque. A color filter may change the
+     * alpha, so any filter counts as translucent.
+     */
+    private boolean isBodyOpaque() {
+        return mPaint.getAlpha() == 255 && mPaint.getColorFilter() == null;
+    }
+
+    /**
+     * Returns the largest rect inside the card body that is drawn fully opaque, in the same
+     * coordinates as the bounds. Content entirely behind it is hidden and need not be drawn.
+     * The rect is inset from the rounded corners the same way the content padding is.
+     *
+     * @return false, with an empty rect, if the body is translucent or too small
+     */
+    public boolean getOpaqueRect(Rect outRect) {
+        ensureComponents();
+        if (!isBodyOpaque()) {
+            outRect.setEmpty();
+            return false;
+        }
+        final float[] radii = mState.mCornerRadii;
+        final float inset = (float) (1 - COS_45);
+        setOpaqueRect(outRect,
+                inset * Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_BOTTOM_LEFT]),
+                inset * Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_TOP_RIGHT]),
+                inset * Math.max(radii[CORNER_TOP_RIGHT], radii[CORNER_BOTTOM_RIGHT]),
+                inset * Math.max(radii[CORNER_BOTTOM_LEFT], radii[CORNER_BOTTOM_RIGHT]));
+        return !outRect.isEmpty();
+    }
+
+    /**
+     * Sets the region to the part of the card body that is drawn fully opaque, in the same
+     * coordinates as the bounds: the card minus its rounded corners. Covers more than
+     * {@link #getOpaqueRect(Rect)} at the cost of a multi-rect region.
+     *
+     * @return false, with an empty region, if the body is translucent or too small
+     */
+    public boolean getOpaqueRegion(Region outRegion) {
+        final Rect rect = mOpaqueRect;
+        if (!getOpaqueRect(rect)) {
+            outRegion.setEmpty();
+            return false;
+        }
+        outRegion.set(rect);
+        final float[] radii = mState.mCornerRadii;
+        if (mState.getMaxCornerRadius() > 0) {
+            // the horizontal and vertical bands between the corners
+            setOpaqueRect(rect, 0, Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_TOP_RIGHT]), 0,
+                    Math.max(radii[CORNER_BOTTOM_LEFT], radii[CORNER_BOTTOM_RIGHT]));
+            outRegion.op(rect, Region.Op.UNION);
+            setOpaqueRect(rect, Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_BOTTOM_LEFT]), 0,
+                    Math.max(radii[CORNER_TOP_RIGHT], radii[CORNER_BOTTOM_RIGHT]), 0);
+            outRegion.op(rect, Region.Op.UNION);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the rect to the pixels fully inside the card inset by the given amounts.
+     */
+    private void setOpaqueRect(Rect outRect, float left, float top, float right, float bottom) {
+        final RectF card = mCardBounds;
+        outRect.set((int) Math.ceil(card.left + left), (int) Math.ceil(card.top + top),
+                (int) Math.floor(card.right - right), (int) Math.floor(card.bottom - bottom));
+        if (outRect.isEmpty()) {
+            outRect.setEmpty();
+        }
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        mState.mChangingConfigurations = getChangingConfigurations();
+        return mState;
+    }
+
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            mState = new ShadowState(mState);
+            mMutated = true;
+        }
+        return this;
+    }
+
+    /**
+     * Rounds the top and bottom corners. The shadow is cast by the left and right edges, and by
+     * the top and bottom edges if their corners are rounded. A card rounded differently at the
+     * top and the bottom only casts it at the top.
+     */
+    public void setCornerRadius(float topRadius, float bottomRadius) {
+        topRadius = (int) (topRadius + .5f);
+        bottomRadius = (int) (bottomRadius + .5f);
+        setShape(topRadius, topRadius, bottomRadius, bottomRadius,
+                getShadowEdges(topRadius, bottomRadius));
+    }
+
+    /**
+     * Returns the shadow edges of a card with the given rounded top and bottom radii. As with
+     * the former corner types, a card rounded differently at the top and the bottom counts as
+     * rounded at the top only, and casts no shadow at the bottom.
+     */
+    private static int getShadowEdges(float topRadius, float bottomRadius) {
+        int edges = EDGE_LEFT | EDGE_RIGHT;
+        if (topRadius > 0) {
+            edges |= EDGE_TOP;
+        }
+        if (bottomRadius > 0 && (topRadius == 0 || topRadius == bottomRadius)) {
+            edges |= EDGE_BOTTOM;
+        }
+        return edges;
+    }
+
+    /**
+     * Sets the radius of each corner, leaving the shadow edges alone.
+     */
+    public void setCornerRadii(float topLeft, float topRight, float bottomRight,
+            float bottomLeft) {
+        setShape(topLeft, topRight, bottomRight, bottomLeft, mState.mShadowEdges);
+    }
+
+    /**
+     * @param corner one of the CORNER_ constants
+     */
+    public float getCornerRadius(int corner) {
+        return mState.mCornerRadii[corner];
+    }
+
+    /**
+     * Selects the edges casting a shadow, as a combination of the EDGE_ flags. The card is inset
+     * from the bounds to make room for the shadow on those edges only, and the shadow of an edge
+     * next to one without shadow runs straight to the end of the card.
+     */
+    public void setShadowEdges(int edges) {
+        final float[] radii = mState.mCornerRadii;
+        setShape(radii[0], radii[1], radii[2], radii[3], edges & EDGE_ALL);
+    }
+
+    public int getShadowEdges() {
+        return mState.mShadowEdges;
+    }
+
+    private void setShape(float topLeft, float topRight, float bottomRight, float bottomLeft,
+            int edges) {
+        if (topLeft < 0 || topRight < 0 || bottomRight < 0 || bottomLeft < 0) {
+            throw new IllegalArgumentException("invalid corner radius");
+        }
+        final ShadowState state = mState;
+        final float[] radii = state.mCornerRadii;
+        topLeft = (int) (topLeft + .5f);
+        topRight = (int) (topRight + .5f);
+        bottomRight = (int) (bottomRight + .5f);
+        bottomLeft = (int) (bottomLeft + .5f);
+        if (radii[CORNER_TOP_LEFT] == topLeft && radii[CORNER_TOP_RIGHT] == topRight
+                && radii[CORNER_BOTTOM_RIGHT] == bottomRight
+                && radii[CORNER_BOTTOM_LEFT] == bottomLeft && state.mShadowEdges == edges) {
+            return;
+        }
+        radii[CORNER_TOP_LEFT] = topLeft;
+        radii[CORNER_TOP_RIGHT] = topRight;
+        radii[CORNER_BOTTOM_RIGHT] = bottomRight;
+        radii[CORNER_BOTTOM_LEFT] = bottomLeft;
+        state.mShadowEdges = edges;
+        state.invalidateAssets();
+        state.mMetrics = null;
+        mDirtyFlags |= DIRTY_SHAPE;
+        invalidateSelf();
+    }
+
+    /**
+     * Animates the shadow size towards the given value, scheduling frames through the drawable
+     * {@link Callback}.
+     * <p>
+     * Frames don't rebuild the shadow: the shadow of the larger of the two sizes is looked up
+     * once and drawn with its depth scaled down to the current size. The real shadow of the
+     * target size is built when the animation ends. Pills and circles scale their rings the
+     * same way.
+     * <p>
+     * Calling this while an animation runs retargets it from the size currently drawn, without
+     * building anything unless the new target is larger than both sizes animated so far.
+     *
+     * @param interpolator the interpolator to use, or null for a linear animation
+     */
+    public void animateShadowSize(float shadowSize, long duration, Interpolator interpolator) {
+        if (shadowSize < 0 || duration < 0) {
+            throw new IllegalArgumentException("invalid shadow size animation");
+        }
+        final ShadowState state = mState;
+        if (state.mStateSpecs != null) {
+            throw new IllegalStateException("the state table drives the shadow size");
+        }
+        if (isNativeShadowMode()) {
+            // nothing to draw, the view's elevation drives the shadow
+            setShadowSize(shadowSize);
+            return;
+        }
+        final float from = getAnimatedShadowSize();
+        final float to = Math.min(toEven(shadowSize), state.mRawMaxShadowSize);
+        final boolean running = isShadowAnimationRunning();
+        if (from == to || duration == 0) {
+            if (running) {
+                stopShadowAnimation(to);
+            } else {
+                setShadowSize(to);
+            }
+            return;
+        }
+        if (mShadowAnimation == null) {
+            mShadowAnimation = new ShadowSizeAnimation(this);
+        }
+        final ShadowSizeAnimation anim = mShadowAnimation;
+        if (anim.retarget(from, to)) {
+            obtainAnimationAssets(ShadowStats.sEnabled);
+            setShadowShaders(anim.mAssets);
+        }
+        anim.start(duration, interpolator);
+    }
+
+    /**
+     * Stops a running shadow size animation, leaving the shadow at its current size.
+     */
+    public void cancelShadowAnimation() {
+        final ShadowSizeAnimation anim = mShadowAnimation;
+        if (anim == null || !anim.mRunning) {
+            return;
+        }
+        stopShadowAnimation(anim.mRawShadowSize);
+    }
+
+    /**
+     * Stops the running shadow size animation and commits the given shadow size.
+     */
+    void stopShadowAnimation(float shadowSize) {
+        mShadowAnimation.stop();
+        setShadowSize(shadowSize);
+        // the size may not change, restore the regular shaders anyway
+        mDirtyFlags |= DIRTY_SHADOW_SIZE;
+        invalidateSelf();
+    }
+
+    public boolean isShadowAnimationRunning() {
+        return mShadowAnimation != null && mShadowAnimation.mRunning;
+    }
+
+    /**
+     * Returns the shadow size currently drawn, which differs from {@link #getShadowSize()}
+     * while an animation is running.
+     */
+    public float getAnimatedShadowSize() {
+        if (mShadowIndex >= 0) {
+            return mState.getStateShadowSize(mShadowIndex);
+        }
+        return isShadowAnimationRunning() ? mShadowAnimation.mRawShadowSize
+                : mState.mRawShadowSize;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        final boolean changed = super.setVisible(visible, restart);
+        if (!visible && isShadowAnimationRunning()) {
+            // no one is watching, jump to the end
+            stopShadowAnimation(mShadowAnimation.mTo);
+        }
+        return changed;
+    }
+
+    private void ensureComponents() {
+        final int detailLevel = mIgnoreGlobalDetailLevel ? mDetailLevel
+                : Math.max(mDetailLevel, sGlobalDetailLevel);
+        if (mPaintDetailLevel != detailLevel) {
+            setPaintDetailLevel(detailLevel);
+            if (detailLevel > mDetailLevel) {
+                synchronized (sLowDetailDrawables) {
+                    sLowDetailDrawables.put(this, Boolean.TRUE);
+                }
+            }
+        }
+        if (mShadowPaintsGeneration != mState.mShadowPaintsGeneration) {
+            // the shadow alpha or tint was changed through a drawable sharing the state
+            updateShadowPaints();
+        }
+        if (!hasStateShadowsSetUp()) {
+            // the state table was changed through a drawable sharing the state
+            setUpStateShadows();
+        }
+        if (!isNativeShadowMode()
+                && (mAssets == null || mAssetsGeneration != mState.mAssetsGeneration)) {
+            // the state may have been changed through a drawable sharing it
+            mDirtyFlags |= DIRTY_ALL;
+        }
+        if (mState.mTessellated
+                && mShadowExcludesCard != (mAssets != null && excludesCard(mAssets.mSpec))) {
+            // the shadow beneath the body shows through a translucent body
+            mDirtyFlags |= DIRTY_TESSELLATION;
+        }
+        if (mDirtyFlags != 0) {
+            if (mStateShadows != null && !isNativeShadowMode()) {
+                buildStateShadows(getBounds(), mDirtyFlags);
+            } else {
+                buildComponents(getBounds(), mDirtyFlags);
+            }
+            mDirtyFlags = 0;
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (ShadowStats.sEnabled) {
+            drawWithStats(canvas);
+            return;
+        }
+        ensureComponents();
+        final Rect clip = getClip(canvas);
+        if (clip == null) {
+            return;
+        }
+        drawShadow(canvas, null, clip);
+        mBodyOps.draw(canvas, mOpPaints, null, 0f, null, clip, false);
+    }
+
+    /**
+     * Draws the shadow without the card body, leaving out the parts the culler reports hidden.
+     *
+     * @param culler may be null to draw the whole shadow
+     */
+    void drawShadowOnly(Canvas canvas, DrawOpBuffer.Culler culler) {
+        ensureComponents();
+        final Rect clip = getClip(canvas);
+        if (clip != null) {
+            drawShadow(canvas, culler, clip);
+        }
+    }
+
+    private void drawWithStats(Canvas canvas) {
+        final long start = System.nanoTime();
+        ShadowStats.beginSection("RoundRectDrawableWithShadow.draw");
+        ensureComponents();
+        int drawCalls = 0;
+        final Rect clip = getClip(canvas);
+        if (clip != null) {
+            ShadowStats.beginSection("drawShadow");
+            drawCalls += drawShadow(canvas, null, clip);
+            ShadowStats.endSection();
+            drawCalls += mBodyOps.draw(canvas, mOpPaints, null, 0f, null, clip, false);
+            mCulledCount += mBodyOps.getCulledCount();
+        }
+        ShadowStats.endSection();
+        ShadowStats.recordDraw(this, getStats(), System.nanoTime() - start, drawCalls,
+                mCulledCount, 0, mScaleCount);
+    }
+
+    /**
+     * Starts a draw: returns the clip bounds of the canvas, which parts of the drawable outside
+     * of are left out, or null if nothing can be drawn.
+     */
+    private Rect getClip(Canvas canvas) {
+        mCulledCount = 0;
+        mScaleCount = 0;
+        return canvas.getClipBounds(mClipBounds) ? mClipBounds : null;
+    }
+
+    /**
+     * @param culler may be null
+     * @param clip the clip bounds of the canvas, or null to ignore the clip
+     * @return the number of canvas draw calls issued
+     */
+    private int drawShadow(Canvas canvas, DrawOpBuffer.Culler culler, Rect clip) {
+        if (isNativeShadowMode()) {
+            // the RenderThread draws the shadow from our outline
+            return 0;
+        } else if (mPaintDetailLevel == DETAIL_BODY_ONLY) {
+            return 0;
+        } else if (isShadowAnimationRunning()) {
+            final ShadowSizeAnimation anim = mShadowAnimation;
+            return drawShadowOps(canvas, anim.mAssets, anim.mShrink, culler, clip);
+        } else if (mShadowBitmap != null) {
+            return drawShadowBitmap(canvas, !isBodyOpaque(), clip, culler);
+        } else {
+            return drawShadowOps(canvas, mAssets, 0f, culler, clip);
+        }
+    }
+
+    private int drawShadowOps(Canvas canvas, ShadowAssets assets, float shrink,
+            DrawOpBuffer.Culler culler, Rect clip) {
+        // solid bands are cheaper than gradients, and nobody tells them apart at low detail
+        final boolean edgeBands = mPaintDetailLevel == DETAIL_LOW;
+        int drawCalls = 0;
+        if (assets.mAmbientCornerShadowShaders != null) {
+            drawCalls += mAmbientShadowOps.draw(canvas, mAmbientOpPaints,
+                    getCornerPaths(assets, 1), shrink, culler, clip, edgeBands);
+            mCulledCount += mAmbientShadowOps.getCulledCount();
+            mScaleCount += mAmbientShadowOps.getScaleCount();
+        }
+        drawCalls += mShadowOps.draw(canvas, mOpPaints, getCornerPaths(assets, 0), shrink,
+                culler, clip, edgeBands);
+        mCulledCount += mShadowOps.getCulledCount();
+        mScaleCount += mShadowOps.getScaleCount();
+        return drawCalls;
+    }
+
+    /**
+     * Returns the corner paths the compiled ops of a layer are drawn with.
+     *
+     * @param layer 0 for the key light layer, 1 for the ambient layer
+     */
+    Path[] getCornerPaths(ShadowAssets assets, int layer) {
+        return mShadowExcludesCard ? mTessellatedCornerPaths[layer] : assets.mCornerShadowPaths;
+    }
+
+    /**
+     * Compiles every shadow layer of the assets around the card.
+     */
+    void compileShadowLayers(RectF cardBounds, ShadowAssets assets,
+            float rawShadowSize) {
+        final ShadowSpec spec = assets.mSpec;
+        mShadowExcludesCard = excludesCard(spec);
+        if (mShadowExcludesCard && mTessellatedCornerPaths == null) {
+            mTessellatedCornerPaths = new Path[2][4];
+            for (int layer = 0; layer < 2; layer++) {
+                for (int corner = 0; corner < 4; corner++) {
+                    mTessellatedCornerPaths[layer][corner] = new Path();
+                }
+            }
+        }
+        compileShadow(mShadowOps, cardBounds, assets, rawShadowSize,
+                layerOffset(rawShadowSize * mState.mShadowOffset),
+                mShadowExcludesCard ? mTessellatedCornerPaths[0] : null);
+        if (spec.hasAmbientShadow()) {
+            compileShadow(mAmbientShadowOps, cardBounds, assets, rawShadowSize,
+                    layerOffset(rawShadowSize * mState.mAmbientShadowOffset),
+                    mShadowExcludesCard ? mTessellatedCornerPaths[1] : null);
+        } else {
+            mAmbientShadowOps.reset();
+        }
+    }
+
+    /**
+     * Returns whether the shadow is compiled without the part beneath the card. The ring of a
+     * round shape is left alone, it barely reaches beneath the card. Shadow size animations
+     * scale every shadow op around its origin, which would move the cut-outs off the card, so
+     * they draw the regular shadow.
+     */
+    private boolean excludesCard(ShadowSpec spec) {
+        return mState.mTessellated && isBodyOpaque() && !isRound(spec)
+                && !isShadowAnimationRunning();
+    }
+
+    /**
+     * Returns the offset of a shadow layer, on whole pixels when the shadow leaves out the
+     * card so that the cut-outs trace the very same arcs as the body.
+     */
+    private float layerOffset(float offset) {
+        return mShadowExcludesCard ? Math.round(offset) : offset;
+    }
+
+    /**
+     * Compiles one shadow layer of the given assets around the card, offset down by the given
+     * amount.
+     * <p>
+     * Every shadow edge of the card casts a shadow from the inner outline of the shadow, the card inset
+     * by the inset shadow and half of the shadow size. Corners between two such edges get a
+     * corner shadow of their radius; edges next to an edge without shadow run on to the card
+     * edge instead.
+     *
+     * @param cornerPaths null to draw the shadow beneath the card too, or paths to fill with
+     *         the corner shadows minus the card, in which case the edges stop at the card
+     */
+    private void compileShadow(DrawOpBuffer ops, RectF cardBounds, ShadowAssets assets,
+            float rawShadowSize, float offset, Path[] cornerPaths) {
+        final ShadowSpec spec = assets.mSpec;
+        float[] radii = spec.mCornerRadii;
+        final int edges = mState.mShadowEdges;
+        final float shadowSize = spec.mShadowSize;
+        final boolean round = isRound(spec);
+        final float inset = mState.mInsetShadow + rawShadowSize / 2;
+        final float[] outline = mShadowOutline;
+        final float[] extent = mShadowExtent;
+        // we offset the content up by the layer offset to make it more realistic.
+        outline[0] = cardBounds.top + inset + offset;
+        outline[1] = cardBounds.right - inset;
+        outline[2] = cardBounds.bottom - inset + offset;
+        outline[3] = cardBounds.left + inset;
+        extent[0] = inset + offset;
+        extent[1] = extent[3] = inset;
+        extent[2] = inset - offset;
+        if (round) {
+            // the ring around the outline, which is larger than the ring of the assets while a
+            // smaller shadow size is animated
+            Arrays.fill(mRingRadii,
+                    Math.min(outline[1] - outline[3], outline[2] - outline[0]) / 2);
+            radii = mRingRadii;
+        }
+
+        ops.reset();
+        for (int edge = 0; edge < 4; edge++) {
+            if ((edges & (1 << edge)) == 0) {
+                continue;
+            }
+            // the edge runs clockwise from corner `edge`, which joins it to the previous edge
+            final int prev = (edge + 3) % 4;
+            final int next = (edge + 1) % 4;
+            final boolean horizontal = edge % 2 == 0;
+            final float x = outline[horizontal ? prev : edge];
+            final float y = outline[horizontal ? edge : prev];
+            final boolean startCorner = (edges & (1 << prev)) != 0;
+            final boolean endCorner = (edges & (1 << next)) != 0;
+            if (startCorner && !round) {
+                final float radius = radii[edge];
+                final float centerX = x + CORNER_SIGN_X[edge] * radius;
+                final float centerY = y + CORNER_SIGN_Y[edge] * radius;
+                ops.addCornerShadow(edge, centerX, centerY, radius + shadowSize);
+                if (cornerPaths != null) {
+                    buildCornerPath(cornerPaths[edge], edge, centerX, centerY, radius,
+                            radius + shadowSize, cardBounds);
+                }
+            }
+            final float length = horizontal ? outline[1] - outline[3] : outline[2] - outline[0];
+            final float start = startCorner ? radii[edge] : -extent[prev];
+            final float end = length - (endCorner ? radii[next] : -extent[next]);
+            final float bottom = cornerPaths != null ? -extent[edge] : 0;
+            ops.addEdgeShadow(edge, x, y, start, -shadowSize, end, bottom, shadowSize);
+        }
+        if (round) {
+            compileRoundShadow(ops, spec, radii[0], rawShadowSize);
+        }
+    }
+
+    /**
+     * Compiles the caps of a pill shadow, whose straight edges are compiled like any edge, or
+     * the ring of a circle shadow, around the inner outline of the shadow.
+     *
+     * @param ringRadius the radius of the inner outline around the caps
+     * @param rawShadowSize the shadow size drawn, smaller than the one of the spec while the
+     *         shadow size animates
+     */
+    private void compileRoundShadow(DrawOpBuffer ops, ShadowSpec spec, float ringRadius,
+            float rawShadowSize) {
+        final float[] outline = mShadowOutline;
+        // Frames of a shadow size animation draw every op of the larger shadow scaled down by
+        // the same shrink relative to its depth, see ShadowSizeAnimation. The ring of the
+        // smaller shadow is larger, so scale the ring of the assets against the depth taking
+        // its outer radius to the one of the ring drawn.
+        final float compiledOuter = spec.mCornerRadii[0] + spec.mShadowSize;
+        final float shadowSize = rawShadowSize * SHADOW_MULTIPLIER + mState.mInsetShadow;
+        final float outer = ringRadius + shadowSize;
+        final float shrink = spec.mShadowSize - shadowSize;
+        final float depth = shrink > 0 && outer < compiledOuter
+                ? compiledOuter * shrink / (compiledOuter - outer) : compiledOuter;
+        final float centerX = (outline[1] + outline[3]) / 2;
+        final float centerY = (outline[0] + outline[2]) / 2;
+        if (spec.mRoundShape == ShadowSpec.ROUND_CIRCLE) {
+            ops.addRingShadow(centerX, centerY, depth);
+        } else if (outline[1] - outline[3] >= outline[2] - outline[0]) {
+            ops.addCapShadow(0, outline[3] + ringRadius, centerY, depth);
+            ops.addCapShadow(2, outline[1] - ringRadius, centerY, depth);
+        } else {
+            ops.addCapShadow(1, centerX, outline[0] + ringRadius, depth);
+            ops.addCapShadow(3, centerX, outline[2] - ringRadius, depth);
+        }
+    }
+
+    private static boolean isRound(ShadowSpec spec) {
+        return spec.mRoundShape != ShadowSpec.ROUND_NONE;
+    }
+
+    /**
+     * Returns the ShadowSpec.ROUND_ shape of the card: a pill when uniform corners reach half
+     * of its shorter side, a circle if it is square too.
+     */
+    private int getRoundShape() {
+        final ShadowState state = mState;
+        final RectF card = mCardBounds;
+        final float radius = state.mCornerRadii[0];
+        if (state.mShadowEdges != EDGE_ALL || !state.hasUniformRadii() || radius < 1f
+                || 2 * radius < Math.min(card.width(), card.height())) {
+            return ShadowSpec.ROUND_NONE;
+        }
+        return card.width() == card.height() ? ShadowSpec.ROUND_CIRCLE : ShadowSpec.ROUND_PILL;
+    }
+
+    /**
+     * Returns the ring radius of a round card's shadow of the given size: half of the shorter
+     * side of the inner outline, or 0 if the card isn't round or is too small for a ring.
+     */
+    private float getRingRadius(float rawShadowSize) {
+        if (mRoundShape == ShadowSpec.ROUND_NONE) {
+            return 0;
+        }
+        final float inset = mState.mInsetShadow + rawShadowSize / 2;
+        final float radius = Math.min(mCardBounds.width(), mCardBounds.height()) / 2 - inset;
+        return radius >= 1f ? radius : 0;
+    }
+
+    /**
+     * Sets the path to the part of a corner shadow outside the card, relative to the corner
+     * center: the quadrant of the outer circle, minus the card and its rounded corner.
+     * <p>
+     * The path is filled even-odd from the quadrant, the rect between the center and the card
+     * corner, and the square and pie of the rounded corner. The pie is the very path
+     * Canvas.drawArc() fills for the corner of the body, see ArcRoundRectHelper, so on the
+     * whole pixels of a tessellated card the two share their edge and no pixel is written
+     * twice.
+     */
+    private void buildCornerPath(Path path, int corner, float centerX, float centerY,
+            float radius, float outerRadius, RectF card) {
+        final RectF oval = mScratchOval;
+        // away from the card
+        final int signX = -CORNER_SIGN_X[corner];
+        final int signY = -CORNER_SIGN_Y[corner];
+        // the card corner, which lies between the center and the outer circle
+        final float cornerX = (signX < 0 ? card.left : card.right) - centerX;
+        final float cornerY = (signY < 0 ? card.top : card.bottom) - centerY;
+        path.rewind();
+        path.setFillType(Path.FillType.EVEN_ODD);
+        path.moveTo(0, 0);
+        path.lineTo(signX * outerRadius, 0);
+        oval.set(-outerRadius, -outerRadius, outerRadius, outerRadius);
+        path.arcTo(oval, signX < 0 ? 180 : 0, signX == signY ? 90 : -90, false);
+        path.close();
+        addRect(path, 0, 0, cornerX, cornerY);
+        if (radius > 0) {
+            final float arcX = cornerX - signX * radius;
+            final float arcY = cornerY - signY * radius;
+            addRect(path, arcX, arcY, cornerX, cornerY);
+            // drawn from the same oval, start and sweep as the body arc of the corner
+            oval.set(arcX - radius, arcY - radius, arcX + radius, arcY + radius);
+            path.moveTo(arcX, arcY);
+            path.arcTo(oval, (corner * 90 + 180) % 360, 90, false);
+            path.close();
+        }
+    }
+
+    private static void addRect(Path path, float x0, float y0, float x1, float y1) {
+        path.addRect(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1),
+                Path.Direction.CW);
+    }
+
+    /**
+     * Draws the cached bitmap in nine slices: the corners 1:1 and the middle row and column
+     * stretched along the card edges.
+     *
+     * @param drawCenter false to leave out the center slice, hidden by an opaque card body
+     * @param clip slices outside of it are left out, may be null
+     * @param culler slices it reports hidden are left out, may be null
+     * @return the number of canvas draw calls issued
+     */
+    private int drawShadowBitmap(Canvas canvas, boolean drawCenter, Rect clip,
+            DrawOpBuffer.Culler culler) {
+        final Bitmap bitmap = mShadowBitmap;
+        final RectF card = mCardBounds;
+        final int margin = mShadowBitmapMargin;
+        final int cornerLeft = mShadowBitmapCornerLeft;
+        final int cornerRight = mShadowBitmapCornerRight;
+        final int cornerTop = mShadowBitmapCornerTop;
+        final int cornerBottom = mShadowBitmapCornerBottom;
+        final int stretchX = margin + cornerLeft;
+        final int stretchY = margin + cornerTop;
+        int drawCalls = 0;
+        for (int row = 0; row < 3; row++) {
+            final int srcTop = row == 0 ? 0 : row == 1 ? stretchY : stretchY + 1;
+            final int srcBottom = row == 0 ? stretchY
+                    : row == 1 ? stretchY + 1 : bitmap.getHeight();
+            final float dstTop = row == 0 ? card.top - margin
+                    : row == 1 ? card.top + cornerTop : card.bottom - cornerBottom;
+            final float dstBottom = row == 0 ? card.top + cornerTop
+                    : row == 1 ? card.bottom - cornerBottom : card.bottom + margin;
+            for (int col = 0; col < 3; col++) {
+                if (row == 1 && col == 1 && !drawCenter) {
+                    continue;
+                }
+                final int srcLeft = col == 0 ? 0 : col == 1 ? stretchX : stretchX + 1;
+                final int srcRight = col == 0 ? stretchX
+                        : col == 1 ? stretchX + 1 : bitmap.getWidth();
+                final float dstLeft = col == 0 ? card.left - margin
+                        : col == 1 ? card.left + cornerLeft : card.right - cornerRight;
+                final float dstRight = col == 0 ? card.left + cornerLeft
+                        : col == 1 ? card.right - cornerRight : card.right + margin;
+                if ((clip != null && (dstLeft >= clip.right || dstRight <= clip.left
+                        || dstTop >= clip.bottom || dstBottom <= clip.top))
+                        || (culler != null
+                        && culler.isHidden(dstLeft, dstTop, dstRight, dstBottom))) {
+                    mCulledCount++;
+                    continue;
+                }
+                mShadowBitmapSrc.set(srcLeft, srcTop, srcRight, srcBottom);
+                mShadowBitmapDst.set(dstLeft, dstTop, dstRight, dstBottom);
+                canvas.drawBitmap(bitmap, mShadowBitmapSrc, mShadowBitmapDst, mShadowBitmapPaint);
+                drawCalls++;
+            }
+        }
+        return drawCalls;
+    }
+
+    /**
+     * Picks up the nine-patch bitmap of the current spec, rendering it if it is not cached.
+     * Leaves {@link #mShadowBitmap} null if the card is too small to be drawn as a nine-patch.
+     */
+    private void buildShadowBitmap() {
+        final ShadowState state = mState;
+        final float[] radii = state.mCornerRadii;
+        final ShadowSpec spec = mAssets.mSpec;
+        final float rawShadowSize = getBuiltShadowSize();
+        final float inset = state.mInsetShadow + rawShadowSize / 2;
+        // the layers moved down the most and the least
+        float maxOffset = state.mShadowOffset;
+        float minOffset = state.mShadowOffset;
+        if (spec.hasAmbientShadow()) {
+            maxOffset = Math.max(maxOffset, state.mAmbientShadowOffset);
+            minOffset = Math.min(minOffset, state.mAmbientShadowOffset);
+        }
+        // The stretched row and column must lie between the corner origins, where the shadow
+        // only consists of the uniform edge gradients. Vertically the shadow is offset by the
+        // layer offsets.
+        final int cornerLeft = (int) Math.ceil(inset
+                + Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_BOTTOM_LEFT]));
+        final int cornerRight = (int) Math.ceil(inset
+                + Math.max(radii[CORNER_TOP_RIGHT], radii[CORNER_BOTTOM_RIGHT]));
+        final int cornerTop = (int) Math.ceil(inset + rawShadowSize * maxOffset
+                + Math.max(radii[CORNER_TOP_LEFT], radii[CORNER_TOP_RIGHT]));
+        final int cornerBottom = (int) Math.ceil(inset - rawShadowSize * minOffset
+                + Math.max(radii[CORNER_BOTTOM_LEFT], radii[CORNER_BOTTOM_RIGHT]));
+        final int margin = (int) Math.ceil(spec.mShadowSize) + 1;
+        if (mCardBounds.width() < cornerLeft + cornerRight + 1
+                || mCardBounds.height() < cornerTop + cornerBottom + 1) {
+            mShadowBitmap = null;
+            return;
+        }
+        final ShadowBitmapCache.Key key = mBitmapKey.set(spec, state.mShadowEdges, rawShadowSize,
+                state.mInsetShadow, state.mShadowOffset, state.mAmbientShadowOffset);
+        Bitmap bitmap = ShadowBitmapCache.get(key);
+        if (bitmap == null) {
+            final int width = 2 * margin + cornerLeft + cornerRight + 1;
+            final int height = 2 * margin + cornerTop + cornerBottom + 1;
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            final RectF virtualCard = new RectF(margin, margin, width - margin, height - margin);
+            final Canvas canvas = new Canvas(bitmap);
+            final DrawOpBuffer ops = new DrawOpBuffer();
+            // the bitmap is shared, so render it without this drawable's alpha and filter
+            final int alpha = mCornerShadowPaints[0].getAlpha();
+            final ColorFilter cf = mCornerShadowPaints[0].getColorFilter();
+            setShadowAlphaAndColorFilter(255, null);
+            final int detailLevel = mPaintDetailLevel;
+            setPaintDetailLevel(DETAIL_FULL);
+            // composite the layers bottom up
+            if (spec.hasAmbientShadow()) {
+                compileShadow(ops, virtualCard, mAssets, rawShadowSize,
+                        rawShadowSize * state.mAmbientShadowOffset, null);
+                ops.draw(canvas, mAmbientOpPaints, mAssets.mCornerShadowPaths, 0f);
+            }
+            compileShadow(ops, virtualCard, mAssets, rawShadowSize,
+                    rawShadowSize * state.mShadowOffset, null);
+            ops.draw(canvas, mOpPaints, mAssets.mCornerShadowPaths, 0f);
+            setPaintDetailLevel(detailLevel);
+            setShadowAlphaAndColorFilter(alpha, cf);
+            ShadowBitmapCache.put(key, bitmap);
+        }
+        mShadowBitmap = bitmap;
+        mShadowBitmapMargin = margin;
+        mShadowBitmapCornerLeft = cornerLeft;
+        mShadowBitmapCornerRight = cornerRight;
+        mShadowBitmapCornerTop = cornerTop;
+        mShadowBitmapCornerBottom = cornerBottom;
+    }
+
+    void buildShadowCorners(int dirtyFlags) {
+        final boolean stats = ShadowStats.sEnabled;
+        if (stats) {
+            ShadowStats.beginSection("buildShadowCorners");
+        }
+        final ShadowState state = mState;
+        final boolean animating = isShadowAnimationRunning();
+        // the spec of a round card depends on its size
+        if ((dirtyFlags & DIRTY_ASSETS) != 0 || ((dirtyFlags & DIRTY_SIZE) != 0
+                && (mRoundShape != ShadowSpec.ROUND_NONE || (mAssets != null
+                && isRound(mAssets.mSpec))))) {
+            mAssets = obtainAssets(stats);
+            mAssetsGeneration = state.mAssetsGeneration;
+            if (animating) {
+                obtainAnimationAssets(stats);
+            }
+            setShadowShaders(animating ? mShadowAnimation.mAssets : mAssets);
+        }
+
+        // every other change affects the bitmap or whether the card is large enough for it.
+        // Layered and cached shadows are always drawn from the bitmap. Animations draw the
+        // ops, and the paints hold the shaders of the animation until it ends.
+        if (!animating && !isRound(mAssets.mSpec) && (state.mNinePatchShadow
+                || state.mCachedShadowLayer || state.hasAmbientShadow())) {
+            buildShadowBitmap();
+        } else {
+            mShadowBitmap = null;
+        }
+
+        if ((dirtyFlags & DIRTY_GEOMETRY) != 0) {
+            if (animating) {
+                final ShadowSizeAnimation anim = mShadowAnimation;
+                compileShadowLayers(mCardBounds, anim.mAssets, anim.mRawShadowSize);
+            } else {
+                compileShadowLayers(mCardBounds, mAssets, getBuiltShadowSize());
+            }
+        }
+        if (stats) {
+            ShadowStats.endSection();
+        }
+    }
+
+    /**
+     * Returns the assets of the regular shadow or of the state table entry being built,
+     * resolving them if the state doesn't hold them yet.
+     */
+    private ShadowAssets obtainAssets(boolean stats) {
+        final ShadowState state = mState;
+        final int index = mShadowIndex;
+        final float rawShadowSize = getBuiltShadowSize();
+        final ShadowAssets round = obtainRoundAssets(mAssets, rawShadowSize, stats);
+        if (round != null) {
+            return round;
+        }
+        ShadowAssets assets = state.getAssets(index);
+        if (assets == null) {
+            final ShadowSpec spec;
+            if (index < 0) {
+                spec = state.fillSpec(mSpecKey);
+            } else {
+                spec = state.fillSpec(mSpecKey, state.multipliedShadowSize(rawShadowSize));
+            }
+            assets = ShadowAssets.obtain(spec, stats ? getStats() : null);
+            if (index < 0) {
+                state.mAssets = assets;
+            } else {
+                state.mStateAssets[index] = assets;
+            }
+        }
+        return assets;
+    }
+
+    /**
+     * Returns the raw shadow size of the regular shadow or of the state table entry being
+     * built.
+     */
+    private float getBuiltShadowSize() {
+        final int index = mShadowIndex;
+        return index < 0 ? mState.mRawShadowSize : mState.getStateShadowSize(index);
+    }
+
+    /**
+     * Points the running shadow size animation at the assets of the larger of its two sizes.
+     */
+    private void obtainAnimationAssets(boolean stats) {
+        final ShadowSizeAnimation anim = mShadowAnimation;
+        final float largest = Math.max(anim.mFrom, anim.mTo);
+        final ShadowAssets round = obtainRoundAssets(anim.mAssets, largest, stats);
+        if (round != null) {
+            anim.mAssets = round;
+        } else {
+            final ShadowState state = mState;
+            anim.mAssets = ShadowAssets.obtain(
+                    state.fillSpec(mSpecKey, state.multipliedShadowSize(largest)),
+                    stats ? getStats() : null);
+        }
+    }
+
+    /**
+     * Returns the assets of the pill or circle shadow of the given size around the card, or
+     * null if the card isn't round. Their rings depend on the size of the card, so they are
+     * looked up in the shared cache by ring radius rather than kept by the state: the given
+     * assets are returned again while they match.
+     */
+    private ShadowAssets obtainRoundAssets(ShadowAssets current, float rawShadowSize,
+            boolean stats) {
+        final float ringRadius = getRingRadius(rawShadowSize);
+        if (ringRadius == 0) {
+            return null;
+        }
+        final ShadowState state = mState;
+        final ShadowSpec spec = state.fillSpec(mSpecKey, state.multipliedShadowSize(rawShadowSize))
+                .setRoundShape(mRoundShape, ringRadius);
+        if (current != null && current.mSpec.equals(spec)) {
+            return current;
+        }
+        return ShadowAssets.obtain(spec, stats ? getStats() : null);
+    }
+
+    private void setShadowShaders(ShadowAssets assets) {
+        for (int rotation = 0; rotation < 4; rotation++) {
+            mCornerShadowPaints[rotation].setShader(assets.mCornerShadowShaders[rotation]);
+            mEdgeShadowPaints[rotation].setShader(assets.mEdgeShadowShaders[rotation]);
+        }
+        if (assets.mAmbientCornerShadowShaders != null) {
+            if (mAmbientOpPaints == null) {
+                mAmbientOpPaints = new Paint[DrawOpBuffer.PAINT_COUNT];
+                for (int i = DrawOpBuffer.PAINT_CORNER_SHADOW; i < DrawOpBuffer.PAINT_COUNT;
+                        i++) {
+                    mAmbientOpPaints[i] = new Paint(mOpPaints[i]);
+                }
+            }
+            for (int rotation = 0; rotation < 4; rotation++) {
+                mAmbientOpPaints[DrawOpBuffer.PAINT_CORNER_SHADOW + rotation].setShader(
+                        assets.mAmbientCornerShadowShaders[rotation]);
+                mAmbientOpPaints[DrawOpBuffer.PAINT_EDGE_SHADOW + rotation].setShader(
+                        assets.mAmbientEdgeShadowShaders[rotation]);
+            }
+        }
+        mEdgeBandColors = assets.mEdgeBandColors;
+        mAmbientEdgeBandColors = assets.mAmbientEdgeBandColors;
+        setEdgeBandColors(getShadowPaintAlpha());
+    }
+
+    private void setShadowAlphaAndColorFilter(int alpha, ColorFilter cf) {
+        for (int i = DrawOpBuffer.PAINT_CORNER_SHADOW; i < DrawOpBuffer.PAINT_COUNT; i++) {
+            mOpPaints[i].setColorFilter(cf);
+            if (mAmbientOpPaints != null) {
+                mAmbientOpPaints[i].setColorFilter(cf);
+            }
+        }
+        for (int i = DrawOpBuffer.PAINT_CORNER_SHADOW; i < DrawOpBuffer.PAINT_EDGE_BAND; i++) {
+            mOpPaints[i].setAlpha(alpha);
+            if (mAmbientOpPaints != null) {
+                mAmbientOpPaints[i].setAlpha(alpha);
+            }
+        }
+        setEdgeBandColors(alpha);
+    }
+
+    /**
+     * Sets the solid edge band paints to the band colors of the assets drawn, faded by the
+     * given shadow alpha.
+     */
+    private void setEdgeBandColors(int alpha) {
+        if (mEdgeBandColors == null) {
+            return;
+        }
+        setEdgeBandColors(mOpPaints, mEdgeBandColors, alpha);
+        if (mAmbientEdgeBandColors != null) {
+            setEdgeBandColors(mAmbientOpPaints, mAmbientEdgeBandColors, alpha);
+        }
+    }
+
+    private static void setEdgeBandColors(Paint[] paints, int[] colors, int alpha) {
+        for (int band = 0; band < 2; band++) {
+            final int color = colors[band];
+            paints[DrawOpBuffer.PAINT_EDGE_BAND + band].setColor((color & 0x00ffffff)
+                    | ((Color.alpha(color) * alpha + 127) / 255) << 24);
+        }
+    }
+
+    void buildComponents(Rect bounds, int dirtyFlags) {
+        // Card is offset SHADOW_MULTIPLIER * maxShadowSize to account for the shadow shift.
+        // We could have different top-bottom offsets to avoid extra gap above but in that case
+        // center aligning Views inside the CardView would be problematic.
+        final ShadowState state = mState;
+        final float hOffset = state.mRawMaxShadowSize;
+        final float vOffset = state.mRawMaxShadowSize * SHADOW_MULTIPLIER;
+        final boolean geometry = (dirtyFlags & DIRTY_GEOMETRY) != 0;
+        if (geometry) {
+            // only edges casting a shadow make room for it
+            mCardBounds.set(bounds.left + (state.hasShadowEdge(EDGE_LEFT) ? hOffset : 0),
+                    bounds.top + (state.hasShadowEdge(EDGE_TOP) ? vOffset : 0),
+                    bounds.right - (state.hasShadowEdge(EDGE_RIGHT) ? hOffset : 0),
+                    bounds.bottom - (state.hasShadowEdge(EDGE_BOTTOM) ? vOffset : 0));
+            mBuiltBounds.set(bounds);
+            mRoundShape = getRoundShape();
+            if (ShadowStats.sEnabled) {
+                ShadowStats.recordRebuild(getStats());
+            }
+        }
+        if (isNativeShadowMode()) {
+            mAmbientShadowOps.reset();
+            mShadowOps.reset();
+        } else {
+            buildShadowCorners(dirtyFlags);
+        }
+        if (geometry) {
+            mBodyOps.reset();
+            final RectF card = mCardBounds;
+            if (mRoundShape != ShadowSpec.ROUND_NONE) {
+                // corners larger than the card would overlap, a single arc draws a circle
+                Arrays.fill(mPillRadii, Math.min(card.width(), card.height()) / 2);
+                sRoundRectHelper.compileRoundRect(mBodyOps, card, mPillRadii,
+                        state.mTessellated);
+            } else {
+                sRoundRectHelper.compileRoundRect(mBodyOps, card, state.mCornerRadii,
+                        state.mTessellated);
+            }
+        }
+    }
+
+    /**
+     * Sets the rect to the space between the bounds and the card on each side, which holds the
+     * shadow.
+     */
+    void getShadowInsets(Rect into) {
+        final ShadowState state = mState;
+        final int hOffset = (int) Math.ceil(state.mRawMaxShadowSize);
+        final int vOffset = (int) Math.ceil(state.mRawMaxShadowSize * SHADOW_MULTIPLIER);
+        into.set(state.hasShadowEdge(EDGE_LEFT) ? hOffset : 0,
+                state.hasShadowEdge(EDGE_TOP) ? vOffset : 0,
+                state.hasShadowEdge(EDGE_RIGHT) ? hOffset : 0,
+                state.hasShadowEdge(EDGE_BOTTOM) ? vOffset : 0);
+    }
+
+    float getCornerRadius() {
+        return mState.getMaxCornerRadius();
+    }
+
+    void getMaxShadowAndCornerPadding(Rect into) {
+        getPadding(into);
+    }
+
+    void setShadowSize(float size) {
+        setShadowSize(size, mState.mRawMaxShadowSize);
+    }
+
+    void setMaxShadowSize(float size) {
+        setShadowSize(mState.mRawShadowSize, size);
+    }
+
+    float getShadowSize() {
+        return mState.mRawShadowSize;
+    }
+
+    float getMaxShadowSize() {
+        return mState.mRawMaxShadowSize;
+    }
+
+    float getMinWidth() {
+        return mState.getMetrics().getMinWidth();
+    }
+
+    float getMinHeight() {
+        return mState.getMetrics().getMinHeight();
+    }
+
+    public void setColor(int color) {
+        if (mState.mStateSpecs == null) {
+            // otherwise applies once the state table is cleared
+            setBodyColor(color);
+        }
+        mState.mBackgroundColor = color;
+        invalidateSelf();
+    }
+
+    /**
+     * Pending changes to the shape, shadow size and color of the drawable, see {@link #edit()}.
+     */
+    public final class Editor {
+
+        private final float[] mCornerRadii = new float[4];
+
+        private int mShadowEdges;
+
+        private float mShadowSize;
+
+        private float mMaxShadowSize;
+
+        private int mColor;
+
+        Editor() {
+        }
+
+        void reset() {
+            final ShadowState state = mState;
+            System.arraycopy(state.mCornerRadii, 0, mCornerRadii, 0, 4);
+            mShadowEdges = state.mShadowEdges;
+            mShadowSize = state.mRawShadowSize;
+            mMaxShadowSize = state.mRawMaxShadowSize;
+            mColor = state.mBackgroundColor;
+        }
+
+        /**
+         * Rounds all corners alike, see {@link #cornerRadius(float, float)}.
+         */
+        public Editor cornerRadius(float radius) {
+            return cornerRadius(radius, radius);
+        }
+
+        /**
+         * Like {@link RoundRectDrawableWithShadow#setCornerRadius(float, float)}, also picks
+         * the shadow edges.
+         */
+        public Editor cornerRadius(float topRadius, float bottomRadius) {
+            topRadius = (int) (topRadius + .5f);
+            bottomRadius = (int) (bottomRadius + .5f);
+            mShadowEdges = getShadowEdges(topRadius, bottomRadius);
+            return cornerRadii(topRadius, topRadius, bottomRadius, bottomRadius);
+        }
+
+        public Editor cornerRadii(float topLeft, float topRight, float bottomRight,
+                float bottomLeft) {
+            mCornerRadii[CORNER_TOP_LEFT] = topLeft;
+            mCornerRadii[CORNER_TOP_RIGHT] = topRight;
+            mCornerRadii[CORNER_BOTTOM_RIGHT] = bottomRight;
+            mCornerRadii[CORNER_BOTTOM_LEFT] = bottomLeft;
+            return this;
+        }
+
+        /**
+         * @param edges a combination of the EDGE_ flags
+         */
+        public Editor shadowEdges(int edges) {
+            mShadowEdges = edges & EDGE_ALL;
+            return this;
+        }
+
+        public Editor shadowSize(float shadowSize) {
+            mShadowSize = shadowSize;
+            return this;
+        }
+
+        public Editor maxShadowSize(float maxShadowSize) {
+            mMaxShadowSize = maxShadowSize;
+            return this;
+        }
+
+        public Editor color(int color) {
+            mColor = color;
+            return this;
+        }
+
+        /**
+         * Applies the changes, invalidating the drawable once if anything changed.
+         *
+         * @throws IllegalArgumentException if a value is invalid, in which case nothing changes
+         */
+        public void apply() {
+            final float[] radii = mCornerRadii;
+            if (radii[0] < 0 || radii[1] < 0 || radii[2] < 0 || radii[3] < 0) {
+                throw new IllegalArgumentException("invalid corner radius");
+            }
+            if (mShadowSize < 0 || mMaxShadowSize < 0) {
+                throw new IllegalArgumentException("invalid shadow size");
+            }
+            mApplyingEdit = true;
+            try {
+                setShape(radii[CORNER_TOP_LEFT], radii[CORNER_TOP_RIGHT],
+                        radii[CORNER_BOTTOM_RIGHT], radii[CORNER_BOTTOM_LEFT], mShadowEdges);
+                setShadowSize(mShadowSize, mMaxShadowSize);
+                if (mState.mBackgroundColor != mColor) {
+                    setColor(mColor);
+                }
+            } finally {
+                mApplyingEdit = false;
+            }
+            if (mInvalidatePending) {
+                mInvalidatePending = false;
+                invalidateSelf();
+            }
+        }
+    }
+
+    /**
+     * Draws the card body with arcs, since canvas.drawRoundRect is expensive before API 17.
+     */
+    static class ArcRoundRectHelper implements RoundRectHelper {
+        @Override
+        public void compileRoundRect(DrawOpBuffer ops, RectF bounds, float[] cornerRadii,
+                boolean tessellated) {
+            compileArcs(ops, bounds, cornerRadii, tessellated);
+        }
+
+        /**
+         * Splits the body into one arc per rounded corner, a row of rects holding the top
+         * corners, one holding the bottom corners and a rect in between.
+         *
+         * @param tessellated true for pieces meeting exactly, which needs whole pixel bounds
+         *         and radii, false for pieces overlapping by a pixel
+         */
+        static void compileArcs(DrawOpBuffer ops, RectF bounds, float[] cornerRadii,
+                boolean tessellated) {
+            final int paint = DrawOpBuffer.PAINT_BODY;
+            final float left = bounds.left;
+            final float top = bounds.top;
+            final float right = bounds.right;
+            final float bottom = bounds.bottom;
+            final float pill = Math.min(bounds.width(), bounds.height()) / 2;
+            if (pill >= 1f && ShadowState.isUniform(cornerRadii) && cornerRadii[0] >= pill) {
+                compilePill(ops, bounds, pill);
+                return;
+            }
+            final float topLeft = arcRadius(cornerRadii[CORNER_TOP_LEFT], tessellated);
+            final float topRight = arcRadius(cornerRadii[CORNER_TOP_RIGHT], tessellated);
+            final float bottomRight = arcRadius(cornerRadii[CORNER_BOTTOM_RIGHT], tessellated);
+            final float bottomLeft = arcRadius(cornerRadii[CORNER_BOTTOM_LEFT], tessellated);
+            // how far the rects reach into the arcs
+            final float overlap = tessellated ? 0 : 1f;
+            final float topRow = Math.max(topLeft, topRight);
+            final float bottomRow = Math.max(bottomLeft, bottomRight);
+
+            // clockwise from the top left, each corner turned by another 90 degrees
+            if (topLeft > 0) {
+                ops.addArc(paint, left + topLeft, top + topLeft, topLeft, 180, 90);
+            }
+            if (topRight > 0) {
+                ops.addArc(paint, right - topRight, top + topRight, topRight, 270, 90);
+            }
+            if (bottomRight > 0) {
+                ops.addArc(paint, right - bottomRight, bottom - bottomRight, bottomRight, 0, 90);
+            }
+            if (bottomLeft > 0) {
+                ops.addArc(paint, left + bottomLeft, bottom - bottomLeft, bottomLeft, 90, 90);
+            }
+
+            // rows holding the corners: between the arcs, and below or above the smaller arc.
+            // Rects overlap the arcs by a pixel to hide anti-aliased seams, unless tessellated.
+            ops.addRect(paint, left + seam(topLeft, overlap), top,
+                    right - seam(topRight, overlap), top + topRow);
+            if (topLeft < topRow) {
+                ops.addRect(paint, left, top + seam(topLeft, overlap), left + topLeft,
+                        top + topRow);
+            }
+            if (topRight < topRow) {
+                ops.addRect(paint, right - topRight, top + seam(topRight, overlap), right,
+                        top + topRow);
+            }
+            ops.addRect(paint, left + seam(bottomLeft, overlap), bottom - bottomRow,
+                    right - seam(bottomRight, overlap), bottom);
+            if (bottomLeft < bottomRow) {
+                ops.addRect(paint, left, bottom - bottomRow, left + bottomLeft,
+                        bottom - seam(bottomLeft, overlap));
+            }
+            if (bottomRight < bottomRow) {
+                ops.addRect(paint, right - bottomRight, bottom - bottomRow, right,
+                        bottom - seam(bottomRight, overlap));
+            }
+            // center
+            ops.addRect(paint, left, top + seam(topRow, overlap), right,
+                    bottom - seam(bottomRow, overlap));
+        }
+
+        /**
+         * Draws a pill as a single round rect, or a circle as a full arc, instead of four
+         * corners meeting without any rects in between.
+         */
+        private static void compilePill(DrawOpBuffer ops, RectF bounds, float radius) {
+            final int paint = DrawOpBuffer.PAINT_BODY;
+            if (bounds.width() == bounds.height()) {
+                ops.addArc(paint, bounds.centerX(), bounds.centerY(), radius, 0, 360);
+            } else {
+                ops.addRoundRect(paint, bounds.left, bounds.top, bounds.right, bounds.bottom,
+                        radius);
+            }
+        }
+
+        private static float arcRadius(float cornerRadius, boolean tessellated) {
+            if (cornerRadius < 1f) {
+                return 0;
+            }
+            // increment it to account for half pixels, unless the arcs must end on whole pixels
+            return tessellated ? cornerRadius : cornerRadius + .5f;
+        }
+
+        private static float seam(float arcRadius, float overlap) {
+            return Math.max(0, arcRadius - overlap);
+        }
+    }
+
+    /**
+     * Draws the card body with canvas.drawRoundRect, which is cheap from API 17 on.
+     */
+    static class NativeRoundRectHelper implements RoundRectHelper {
+        @Override
+        public void compileRoundRect(DrawOpBuffer ops, RectF bounds, float[] cornerRadii,
+                boolean tessellated) {
+            final int paint = DrawOpBuffer.PAINT_BODY;
+            final float radius = cornerRadii[0];
+            if (!ShadowState.isUniform(cornerRadii) || tessellated) {
+                // a single round rect can't mix radii, and its corners don't match the arcs
+                // the corner shadows of a tessellated card leave out
+                ArcRoundRectHelper.compileArcs(ops, bounds, cornerRadii, tessellated);
+            } else if (radius < 1f) {
+                ops.addRect(paint, bounds.left, bounds.top, bounds.right, bounds.bottom);
+            } else {
+                ops.addRoundRect(paint, bounds.left, bounds.top, bounds.right, bounds.bottom,
+                        radius);
+            }
+        }
+    }
+
+    static interface RoundRectHelper {
+        /**
+         * Appends the ops drawing the card body with {@link DrawOpBuffer#PAINT_BODY}.
+         *
+         * @param cornerRadii radius of each corner, clockwise from the top left
+         * @param tessellated true if no pixel may be drawn twice
+         */
+        void compileRoundRect(DrawOpBuffer ops, RectF bounds, float[] cornerRadii,
+                boolean tessellated);
+    }
+
+    /**
+     * State shared between drawables created from the same {@link ConstantState}. Call
+     * {@link #mutate()} before changing a drawable that must not affect its siblings.
+     */
+    static final class ShadowState extends ConstantState {
+
+        int mChangingConfigurations;
+
+        int mBackgroundColor;
+
+        // clockwise from the top left
+        final float[] mCornerRadii = new float[4];
+
+        int mShadowEdges = EDGE_ALL;
+
+        // updated value with inset
+        float mMaxShadowSize;
+
+        // actual value set by developer
+        float mRawMaxShadowSize;
+
+        // multiplied value to account for shadow offset
+        float mShadowSize;
+
+        // actual value set by developer
+        float mRawShadowSize;
+
+        // shadow colors of the card view theme
+        final int mDefaultShadowStartColor;
+
+        final int mDefaultShadowEndColor;
+
+        // the shadow, or the key light layer of a layered shadow, see setShadowLayers()
+        int mShadowStartColor;
+
+        int mShadowEndColor;
+
+        float mShadowOffset = DEFAULT_SHADOW_OFFSET;
+
+        // ambient layer below it, none while both colors are 0
+        int mAmbientShadowStartColor;
+
+        int mAmbientShadowEndColor;
+
+        float mAmbientShadowOffset;
+
+        final int mInsetShadow; // extra shadow to avoid gaps between card and shadow
+
+        boolean mAddPaddingForCorners = true;
+
+        boolean mNinePatchShadow;
+
+        boolean mCachedShadowLayer;
+
+        boolean mTessellated;
+
+        boolean mGaussianFalloff;
+
+        // applied through the shadow paints only, see setShadowAlpha() and setShadowTint()
+        int mShadowAlpha = 255;
+
+        int mShadowTintColor;
+
+        // null without tint, shared by the drawables of this state since filters are immutable
+        PorterDuffColorFilter mShadowTint;
+
+        // bumped whenever the shadow alpha or tint changes, so that every drawable of this
+        // state updates its shadow paints
+        int mShadowPaintsGeneration;
+
+        // resolved lazily on the first draw after the spec changes
+        ShadowAssets mAssets;
+
+        // bumped whenever the spec changes, see invalidateAssets()
+        int mAssetsGeneration;
+
+        // resolved lazily on the first use after the shape or the max shadow size changes
+        ShadowMetrics mMetrics;
+
+        // shadow size and card color by drawable state, see setStateShadows(), and the assets
+        // of each entry, resolved lazily like mAssets. All null without a state table.
+        int[][] mStateSpecs;
+
+        float[] mStateShadowSizes;
+
+        int[] mStateColors;
+
+        ShadowAssets[] mStateAssets;
+
+        ShadowState(ShadowResources resources) {
+            mDefaultShadowStartColor = mShadowStartColor = resources.mShadowStartColor;
+            mDefaultShadowEndColor = mShadowEndColor = resources.mShadowEndColor;
+            mInsetShadow = resources.mInsetShadow;
+        }
+
+        ShadowState(ShadowState orig) {
+            mChangingConfigurations = orig.mChangingConfigurations;
+            mBackgroundColor = orig.mBackgroundColor;
+            System.arraycopy(orig.mCornerRadii, 0, mCornerRadii, 0, 4);
+            mShadowEdges = orig.mShadowEdges;
+            mMaxShadowSize = orig.mMaxShadowSize;
+            mRawMaxShadowSize = orig.mRawMaxShadowSize;
+            mShadowSize = orig.mShadowSize;
+            mRawShadowSize = orig.mRawShadowSize;
+            mDefaultShadowStartColor = orig.mDefaultShadowStartColor;
+            mDefaultShadowEndColor = orig.mDefaultShadowEndColor;
+            mShadowStartColor = orig.mShadowStartColor;
+            mShadowEndColor = orig.mShadowEndColor;
+            mShadowOffset = orig.mShadowOffset;
+            mAmbientShadowStartColor = orig.mAmbientShadowStartColor;
+            mAmbientShadowEndColor = orig.mAmbientShadowEndColor;
+            mAmbientShadowOffset = orig.mAmbientShadowOffset;
+            mInsetShadow = orig.mInsetShadow;
+            mAddPaddingForCorners = orig.mAddPaddingForCorners;
+            mNinePatchShadow = orig.mNinePatchShadow;
+            mCachedShadowLayer = orig.mCachedShadowLayer;
+            mTessellated = orig.mTessellated;
+            mGaussianFalloff = orig.mGaussianFalloff;
+            mShadowAlpha = orig.mShadowAlpha;
+            mShadowTintColor = orig.mShadowTintColor;
+            mShadowTint = orig.mShadowTint;
+            mShadowPaintsGeneration = orig.mShadowPaintsGeneration;
+            mAssets = orig.mAssets;
+            mAssetsGeneration = orig.mAssetsGeneration;
+            mMetrics = orig.mMetrics;
+            mStateSpecs = orig.mStateSpecs;
+            mStateShadowSizes = orig.mStateShadowSizes;
+            mStateColors = orig.mStateColors;
+            mStateAssets = orig.mStateAssets != null ? orig.mStateAssets.clone() : null;
+        }
+
+        ShadowSpec fillSpec(ShadowSpec spec) {
+            return fillSpec(spec, mShadowSize);
+        }
+
+        /**
+         * @param shadowSize the multiplied shadow size, see {@link #multipliedShadowSize(float)}
+         */
+        ShadowSpec fillSpec(ShadowSpec spec, float shadowSize) {
+            return spec.set(mCornerRadii, shadowSize, mShadowStartColor, mShadowEndColor)
+                    .setAmbientColors(mAmbientShadowStartColor, mAmbientShadowEndColor)
+                    .setGaussianFalloff(mGaussianFalloff);
+        }
+
+        boolean hasAmbientShadow() {
+            return mAmbientShadowStartColor != 0 || mAmbientShadowEndColor != 0;
+        }
+
+        /**
+         * @param stateIndex a state table entry, or -1 for the regular shadow
+         */
+        ShadowAssets getAssets(int stateIndex) {
+            return stateIndex < 0 ? mAssets : mStateAssets[stateIndex];
+        }
+
+        float getStateShadowSize(int stateIndex) {
+            return Math.min(mStateShadowSizes[stateIndex], mRawMaxShadowSize);
+        }
+
+        /**
+         * Drops the resolved assets, and tells the drawables sharing the state to resolve
+         * theirs again.
+         */
+        void invalidateAssets() {
+            mAssetsGeneration++;
+            mAssets = null;
+            if (mStateAssets != null) {
+                Arrays.fill(mStateAssets, null);
+            }
+        }
+
+        ShadowMetrics getMetrics() {
+            if (mMetrics == null) {
+                mMetrics = ShadowMetrics.compute(mCornerRadii, mShadowEdges, mRawMaxShadowSize,
+                        mInsetShadow, mAddPaddingForCorners);
+            }
+            return mMetrics;
+        }
+
+        boolean hasShadowEdge(int edge) {
+            return (mShadowEdges & edge) != 0;
+        }
+
+        boolean hasUniformRadii() {
+            return isUniform(mCornerRadii);
+        }
+
+        float getMaxCornerRadius() {
+            final float[] radii = mCornerRadii;
+            return Math.max(Math.max(radii[0], radii[1]), Math.max(radii[2], radii[3]));
+        }
+
+        static boolean isUniform(float[] cornerRadii) {
+            return cornerRadii[0] == cornerRadii[1] && cornerRadii[0] == cornerRadii[2]
+                    && cornerRadii[0] == cornerRadii[3];
+        }
+
+        float multipliedShadowSize(float rawShadowSize) {
+            return (int) (rawShadowSize * SHADOW_MULTIPLIER + mInsetShadow + .5f);
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new RoundRectDrawableWithShadow(this);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return mChangingConfigurations;
+        }
     }
 }
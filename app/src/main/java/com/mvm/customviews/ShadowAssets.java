@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Path;
+import android.graphics.RadialGradient;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.support.v4.util.LruCache;
+
+/**
+ * Immutable corner paths and shaders for one {@link ShadowSpec}.
+ * <p>
+ * Assets are built once per spec and shared by every drawable that uses the same spec, so
+ * none of the fields may be modified after {@link #build(ShadowSpec)} returns.
+ */
+final class ShadowAssets {
+
+    /**
+     * Number of distinct specs kept alive. A screen rarely uses more than a handful.
+     */
+    static final int MAX_CACHED_SPECS = 32;
+
+    private static final LruCache<ShadowSpec, ShadowAssets> sCache =
+            new LruCache<ShadowSpec, ShadowAssets>(MAX_CACHED_SPECS);
+
+    // gradients may keep a reference to their arrays, so only never modified arrays are shared
+    private static final float[] EDGE_STOPS = new float[]{0f, .5f, 1f};
+
+    /**
+     * Number of steps the Gaussian falloff is sampled at.
+     */
+    static final int FALLOFF_STEPS = 8;
+
+    // Gaussian falloff from the inner outline (0) to the outer end of the shadow (1): the
+    // profile of an edge blurred by a Gaussian whose 2.5 sigma span half of the shadow depth,
+    // rescaled to run from exactly 1 to exactly 0
+    private static final float[] FALLOFF = buildFalloff(FALLOFF_STEPS, .2f);
+
+    // edge gradient stops of the Gaussian falloff, laid out like EDGE_STOPS
+    private static final float[] FALLOFF_EDGE_STOPS = buildStops(.5f);
+
+    final ShadowSpec mSpec;
+
+    // corner paths by rotation index: the top left corner, and the top right, bottom right and
+    // bottom left corners as copies rotated by 90, 180 and 270 degrees, each with its own radius.
+    // For pills and circles, the left cap, rotated the same way, then the whole ring at
+    // DrawOpBuffer.PATH_RING.
+    final Path[] mCornerShadowPaths;
+
+    // radial, so they serve all rotations; corners of the same radius share one
+    final Shader[] mCornerShadowShaders;
+
+    // the top edge shader, and its copies rotated by 90, 180 and 270 degrees. Edges are drawn
+    // from the inner shadow outline, so they don't depend on the corner radii.
+    final Shader[] mEdgeShadowShaders;
+
+    // shaders of the ambient layer, laid out like the ones above, or null without ambient
+    // layer. The layers only differ in colors, so they share the corner paths.
+    final Shader[] mAmbientCornerShadowShaders;
+
+    final Shader[] mAmbientEdgeShadowShaders;
+
+    // colors of the inner and outer edge bands drawn instead of the edge gradients at low
+    // detail, then the same for the ambient layer if there is one
+    final int[] mEdgeBandColors;
+
+    final int[] mAmbientEdgeBandColors;
+
+    // number of distinct shaders created by build()
+    final int mShaderCount;
+
+    private ShadowAssets(ShadowSpec spec, Path[] cornerShadowPaths, Shader[] cornerShadowShaders,
+            Shader[] edgeShadowShaders, Shader[] ambientCornerShadowShaders,
+            Shader[] ambientEdgeShadowShaders, int shaderCount) {
+        mSpec = spec;
+        mCornerShadowPaths = cornerShadowPaths;
+        mCornerShadowShaders = cornerShadowShaders;
+        mEdgeShadowShaders = edgeShadowShaders;
+        mAmbientCornerShadowShaders = ambientCornerShadowShaders;
+        mAmbientEdgeShadowShaders = ambientEdgeShadowShaders;
+        mShaderCount = shaderCount;
+        mEdgeBandColors = buildEdgeBandColors(spec, spec.mShadowStartColor,
+                spec.mShadowEndColor);
+        mAmbientEdgeBandColors = spec.hasAmbientShadow() ? buildEdgeBandColors(spec,
+                spec.mAmbientShadowStartColor, spec.mAmbientShadowEndColor) : null;
+    }
+
+    /**
+     * Returns the shared assets for the given spec, building them on first use. The spec may be
+     * a reusable lookup key; it is copied before being stored.
+     * <p>
+     * Thread safe. Builds don't lock, so a drawable never waits for a build of another spec
+     * running in the background; a spec missed by two threads at once is simply built twice.
+     */
+    static ShadowAssets obtain(ShadowSpec spec) {
+        return obtain(spec, null);
+    }
+
+    /**
+     * @param stats the stats of the drawable the assets are for, or null
+     */
+    static ShadowAssets obtain(ShadowSpec spec, ShadowStats stats) {
+        ShadowAssets assets = sCache.get(spec);
+        if (assets == null) {
+            assets = create(spec, stats);
+            sCache.put(assets.mSpec, assets);
+        }
+        return assets;
+    }
+
+    private static ShadowAssets create(ShadowSpec spec, ShadowStats stats) {
+        final ShadowAssets assets = build(new ShadowSpec(spec));
+        if (ShadowStats.sEnabled) {
+            ShadowStats.recordShaderCreations(stats, assets.mShaderCount);
+        }
+        return assets;
+    }
+
+    static void clearCache() {
+        sCache.evictAll();
+    }
+
+    static ShadowAssets build(ShadowSpec spec) {
+        final float shadowSize = spec.mShadowSize;
+        final RectF innerBounds = new RectF();
+        final RectF outerBounds = new RectF();
+        final Matrix matrix = new Matrix();
+        final boolean round = spec.mRoundShape != ShadowSpec.ROUND_NONE;
+        final Path[] cornerShadowPaths = new Path[round ? DrawOpBuffer.PATH_RING + 1 : 4];
+        for (int rotation = 0; rotation < 4; rotation++) {
+            final float cornerRadius = spec.mCornerRadii[rotation];
+            matrix.setRotate(90f * rotation);
+            innerBounds.set(-cornerRadius, -cornerRadius, cornerRadius, cornerRadius);
+            outerBounds.set(innerBounds);
+            outerBounds.inset(-shadowSize, -shadowSize);
+
+            Path cornerShadowPath = new Path();
+            cornerShadowPath.setFillType(Path.FillType.EVEN_ODD);
+            if (round) {
+                // the left half of the ring
+                cornerShadowPath.moveTo(0, cornerRadius);
+                cornerShadowPath.rLineTo(0, shadowSize);
+                cornerShadowPath.arcTo(outerBounds, 90f, 180f, false);
+                cornerShadowPath.arcTo(innerBounds, 270f, -180f, false);
+            } else {
+                cornerShadowPath.moveTo(-cornerRadius, 0);
+                cornerShadowPath.rLineTo(-shadowSize, 0);
+                // outer arc
+                cornerShadowPath.arcTo(outerBounds, 180f, 90f, false);
+                // inner arc
+                cornerShadowPath.arcTo(innerBounds, 270f, -90f, false);
+            }
+            cornerShadowPath.close();
+            cornerShadowPath.transform(matrix);
+            cornerShadowPaths[rotation] = cornerShadowPath;
+        }
+        if (round) {
+            final float ringRadius = spec.mCornerRadii[0];
+            final Path ring = new Path();
+            ring.setFillType(Path.FillType.EVEN_ODD);
+            ring.addCircle(0, 0, ringRadius + shadowSize, Path.Direction.CW);
+            ring.addCircle(0, 0, ringRadius, Path.Direction.CW);
+            cornerShadowPaths[DrawOpBuffer.PATH_RING] = ring;
+        }
+
+        final Shader[] cornerShaders = new Shader[4];
+        final Shader[] edgeShaders = new Shader[4];
+        int shaderCount = buildShaders(spec, spec.mShadowStartColor, spec.mShadowEndColor,
+                cornerShaders, edgeShaders);
+        Shader[] ambientCornerShaders = null;
+        Shader[] ambientEdgeShaders = null;
+        if (spec.hasAmbientShadow()) {
+            ambientCornerShaders = new Shader[4];
+            ambientEdgeShaders = new Shader[4];
+            shaderCount += buildShaders(spec, spec.mAmbientShadowStartColor,
+                    spec.mAmbientShadowEndColor, ambientCornerShaders, ambientEdgeShaders);
+        }
+
+        return new ShadowAssets(spec, cornerShadowPaths, cornerShaders, edgeShaders,
+                ambientCornerShaders, ambientEdgeShaders, shaderCount);
+    }
+
+    /**
+     * Fills in the corner and edge shaders of one shadow layer.
+     *
+     * @return the number of shaders created
+     */
+    private static int buildShaders(ShadowSpec spec, int startColor, int endColor,
+            Shader[] cornerShaders, Shader[] edgeShaders) {
+        final float shadowSize = spec.mShadowSize;
+        final boolean gaussian = spec.mGaussianFalloff;
+        final Matrix matrix = new Matrix();
+        final int[] colors = gaussian ? buildFalloffColors(startColor, endColor)
+                : new int[]{startColor, startColor, endColor};
+        final float[] edgeStops = gaussian ? FALLOFF_EDGE_STOPS : EDGE_STOPS;
+        int shaderCount = 0;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            final float cornerRadius = spec.mCornerRadii[rotation];
+            for (int i = 0; i < rotation; i++) {
+                if (spec.mCornerRadii[i] == cornerRadius) {
+                    cornerShaders[rotation] = cornerShaders[i];
+                    break;
+                }
+            }
+            if (cornerShaders[rotation] == null) {
+                // a gradient needs a positive radius, even for an empty corner
+                final float outerRadius = Math.max(1f, cornerRadius + shadowSize);
+                float startRatio = cornerRadius / outerRadius;
+                cornerShaders[rotation] = new RadialGradient(0, 0, outerRadius, colors,
+                        gaussian ? buildStops(startRatio) : new float[]{0f, startRatio, 1f},
+                        Shader.TileMode.CLAMP);
+                shaderCount++;
+            }
+
+            // the edge is drawn between y = -shadowSize and the inner outline at y = 0, the
+            // gradient is mirrored inside the outline where the card hides it
+            matrix.setRotate(90f * rotation);
+            edgeShaders[rotation] = new LinearGradient(0, shadowSize, 0, -shadowSize, colors,
+                    edgeStops, Shader.TileMode.CLAMP);
+            edgeShaders[rotation].setLocalMatrix(matrix);
+            shaderCount++;
+        }
+        return shaderCount;
+    }
+
+    /**
+     * Returns the colors of the edge gradient a quarter and three quarters of the way through
+     * the shadow depth, the average colors of its inner and outer halves.
+     */
+    private static int[] buildEdgeBandColors(ShadowSpec spec, int startColor, int endColor) {
+        final boolean gaussian = spec.mGaussianFalloff;
+        return new int[]{
+                blend(endColor, startColor, gaussian ? FALLOFF[FALLOFF_STEPS / 4] : .75f),
+                blend(endColor, startColor, gaussian ? FALLOFF[FALLOFF_STEPS * 3 / 4] : .25f)};
+    }
+
+    /**
+     * Returns the gradient stops of the Gaussian falloff starting at the given position: the
+     * start color from 0 on, then one stop per falloff step.
+     */
+    private static float[] buildStops(float start) {
+        final float[] stops = new float[FALLOFF_STEPS + 2];
+        for (int i = 0; i <= FALLOFF_STEPS; i++) {
+            stops[i + 1] = start + (1f - start) * i / FALLOFF_STEPS;
+        }
+        return stops;
+    }
+
+    /**
+     * Returns the colors matching {@link #buildStops(float)}, blending from the start to the end
+     * color along the falloff.
+     */
+    private static int[] buildFalloffColors(int startColor, int endColor) {
+        final int[] colors = new int[FALLOFF_STEPS + 2];
+        colors[0] = startColor;
+        for (int i = 0; i <= FALLOFF_STEPS; i++) {
+            colors[i + 1] = blend(endColor, startColor, FALLOFF[i]);
+        }
+        return colors;
+    }
+
+    private static int blend(int from, int to, float fraction) {
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int a = (from >>> shift) & 0xff;
+            final int b = (to >>> shift) & 0xff;
+            color |= ((int) (a + (b - a) * fraction + .5f) & 0xff) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * Samples the complementary error function around the middle of [0, 1] at steps + 1
+     * evenly spaced points, rescaled to run from 1 down to 0.
+     */
+    private static float[] buildFalloff(int steps, float sigma) {
+        final double scale = 1 / (sigma * Math.sqrt(2));
+        final double first = erfc(-.5 * scale);
+        final double last = erfc(.5 * scale);
+        final float[] falloff = new float[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            final double t = (double) i / steps;
+            falloff[i] = (float) ((erfc((t - .5) * scale) - last) / (first - last));
+        }
+        return falloff;
+    }
+
+    /**
+     * Abramowitz and Stegun 7.1.26, accurate to 1.5e-7, plenty for 8 bit colors.
+     */
+    private static double erfc(double x) {
+        final double z = Math.abs(x);
+        final double t = 1 / (1 + .3275911 * z);
+        final double poly = t * (.254829592 + t * (-.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429))));
+        final double erfc = poly * Math.exp(-z * z);
+        return x >= 0 ? erfc : 2 - erfc;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * Memory bounded cache of pre-rendered nine-patch shadows, keyed by the {@link ShadowSpec} of
+ * their assets and the shadow edges, size, inset and layer offsets they were rendered with.
+ * <p>
+ * Evicted bitmaps are not recycled since drawables may still be drawing them; they are simply
+ * left to the garbage collector once no drawable references them anymore.
+ */
+public final class ShadowBitmapCache {
+
+    /**
+     * Default byte budget, enough for a few dozen specs of typical card elevations.
+     */
+    public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    private static LruCache<Key, Bitmap> sCache = createCache(DEFAULT_MAX_BYTES);
+
+    private ShadowBitmapCache() {
+    }
+
+    private static LruCache<Key, Bitmap> createCache(int maxBytes) {
+        return new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                // getByteCount() is API 12+
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Replaces the cache with an empty one using the given byte budget.
+     */
+    public static synchronized void setMaxBytes(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid cache size");
+        }
+        sCache.evictAll();
+        sCache = createCache(maxBytes);
+    }
+
+    public static synchronized int getMaxBytes() {
+        return sCache.maxSize();
+    }
+
+    public static synchronized int getSizeBytes() {
+        return sCache.size();
+    }
+
+    static synchronized Bitmap get(Key key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * @param key may be a reusable lookup key; it is copied before being stored
+     */
+    static synchronized void put(Key key, Bitmap bitmap) {
+        sCache.put(new Key(key), bitmap);
+    }
+
+    public static synchronized void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Shrinks the cache according to a {@link ComponentCallbacks2} trim level. Register
+     * {@link ShadowTrimCallbacks} to have this called automatically.
+     */
+    public static synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            sCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            sCache.trimToSize(sCache.maxSize() / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            sCache.trimToSize(sCache.maxSize() / 2);
+        }
+    }
+
+    static final class Key {
+
+        // shared and immutable, see ShadowAssets
+        ShadowSpec mSpec;
+
+        int mShadowEdges;
+
+        float mRawShadowSize;
+
+        int mInsetShadow;
+
+        float mShadowOffset;
+
+        float mAmbientShadowOffset;
+
+        Key() {
+        }
+
+        private Key(Key orig) {
+            set(orig.mSpec, orig.mShadowEdges, orig.mRawShadowSize, orig.mInsetShadow,
+                    orig.mShadowOffset, orig.mAmbientShadowOffset);
+        }
+
+        Key set(ShadowSpec spec, int shadowEdges, float rawShadowSize, int insetShadow,
+                float shadowOffset, float ambientShadowOffset) {
+            mSpec = spec;
+            mShadowEdges = shadowEdges;
+            mRawShadowSize = rawShadowSize;
+            mInsetShadow = insetShadow;
+            mShadowOffset = shadowOffset;
+            mAmbientShadowOffset = ambientShadowOffset;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mShadowEdges == other.mShadowEdges
+                    && Float.floatToIntBits(mRawShadowSize)
+                            == Float.floatToIntBits(other.mRawShadowSize)
+                    && mInsetShadow == other.mInsetShadow
+                    && Float.floatToIntBits(mShadowOffset)
+                            == Float.floatToIntBits(other.mShadowOffset)
+                    && Float.floatToIntBits(mAmbientShadowOffset)
+                            == Float.floatToIntBits(other.mAmbientShadowOffset)
+                    && mSpec.equals(other.mSpec);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mSpec.hashCode();
+            hash = 31 * hash + mShadowEdges;
+            hash = 31 * hash + Float.floatToIntBits(mRawShadowSize);
+            hash = 31 * hash + mInsetShadow;
+            hash = 31 * hash + Float.floatToIntBits(mShadowOffset);
+            hash = 31 * hash + Float.floatToIntBits(mAmbientShadowOffset);
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import java.util.HashMap;
+
+/**
+ * Draws the card shadows of all visible children of a {@link RecyclerView} in one pass, below
+ * the children, and makes room for them with item offsets. The children draw their own card
+ * body, the decoration only adds the shadows.
+ * <p>
+ * Children with the same {@link CardShadowSpec} share one set of paints, shaders and compiled
+ * geometry, and are drawn one after the other, grouped by size so that equally sized cards
+ * reuse the compiled geometry. Parts of a shadow completely covered by the opaque part of any
+ * child, its own card included, are left out, see
+ * {@link #getOpaqueRect(RecyclerView, View, Rect)}.
+ */
+public class ShadowItemDecoration extends RecyclerView.ItemDecoration {
+
+    /**
+     * Picks the spec of each item.
+     */
+    public interface SpecLookup {
+        /**
+         * @return the spec of the child, or null to draw no shadow around it
+         */
+        CardShadowSpec getSpec(RecyclerView parent, View child);
+    }
+
+    private final Resources mResources;
+
+    private final CardShadowSpec mDefaultSpec;
+
+    private SpecLookup mSpecLookup;
+
+    // one renderer per spec seen so far
+    private final HashMap<CardShadowSpec, Renderer> mRenderers =
+            new HashMap<CardShadowSpec, Renderer>();
+
+    // visible children of the frame being drawn, reused between frames: card bounds and the
+    // bounds of their opaque part as left, top, right, bottom quadruples, whether they have an
+    // opaque part, their renderer and the draw order
+    private int[] mCards = new int[16 * 4];
+    private int[] mOpaqueRects = new int[16 * 4];
+    private boolean[] mOpaque = new boolean[16];
+    private Renderer[] mChildRenderers = new Renderer[16];
+    private int[] mOrder = new int[16];
+
+    // opaque cards overlapping the shadow being drawn
+    private int[] mOccluders = new int[8];
+    private int mOccluderCount;
+
+    private final Rect mOpaqueRect = new Rect();
+
+    private final DrawOpBuffer.Culler mCuller = new DrawOpBuffer.Culler() {
+        @Override
+        public boolean isHidden(float left, float top, float right, float bottom) {
+            final int[] cards = mOpaqueRects;
+            for (int i = 0; i < mOccluderCount; i++) {
+                final int card = mOccluders[i] * 4;
+                if (cards[card] <= left && cards[card + 1] <= top && cards[card + 2] >= right
+                        && cards[card + 3] >= bottom) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @param spec the spec of every item, unless a {@link SpecLookup} is set
+     */
+    public ShadowItemDecoration(Resources resources, CardShadowSpec spec) {
+        mResources = resources;
+        mDefaultSpec = spec;
+    }
+
+    /**
+     * Sets how specs are picked per item, null to use the spec passed to the constructor for
+     * all items. Call {@link RecyclerView#invalidateItemDecorations()} afterwards.
+     */
+    public void setSpecLookup(SpecLookup specLookup) {
+        mSpecLookup = specLookup;
+    }
+
+    private CardShadowSpec getSpec(RecyclerView parent, View child) {
+        return mSpecLookup != null ? mSpecLookup.getSpec(parent, child) : mDefaultSpec;
+    }
+
+    /**
+     * Sets the rect to the part of the child that is drawn fully opaque, in the child's own
+     * coordinates. Shadows of other children behind it are left out. By default a card
+     * background reports its {@link RoundRectDrawableWithShadow#getOpaqueRect(Rect)}, and a
+     * child that is opaque as a whole covers all of its bounds; translucent children and
+     * children with any other background hide nothing.
+     * <p>
+     * Override to report the opaque part of other children, such as cards drawing their body
+     * themselves.
+     *
+     * @return false if no part of the child hides what is behind it
+     */
+    protected boolean getOpaqueRect(RecyclerView parent, View child, Rect outRect) {
+        if (ViewCompat.getAlpha(child) < 1f) {
+            return false;
+        }
+        final Drawable background = child.getBackground();
+        if (background instanceof RoundRectDrawableWithShadow) {
+            return ((RoundRectDrawableWithShadow) background).getOpaqueRect(outRect);
+        }
+        if (child.isOpaque()) {
+            outRect.set(0, 0, child.getWidth(), child.getHeight());
+            return true;
+        }
+        return false;
+    }
+
+    private Renderer getRenderer(CardShadowSpec spec) {
+        Renderer renderer = mRenderers.get(spec);
+        if (renderer == null) {
+            renderer = new Renderer(mResources, spec, mRenderers.size());
+            mRenderers.put(spec, renderer);
+        }
+        return renderer;
+    }
+
+    @Override
+    public void getItemOffsets(Rect outRect, View view, RecyclerView parent,
+            RecyclerView.State state) {
+        final CardShadowSpec spec = getSpec(parent, view);
+        if (spec == null) {
+            outRect.set(0, 0, 0, 0);
+        } else {
+            outRect.set(getRenderer(spec).mInsets);
+        }
+    }
+
+    @Override
+    public void onDraw(Canvas c, RecyclerView parent, RecyclerView.State state) {
+        final int childCount = parent.getChildCount();
+        ensureCapacity(childCount);
+        int count = 0;
+        for (int i = 0; i < childCount; i++) {
+            final View child = parent.getChildAt(i);
+            final CardShadowSpec spec = getSpec(parent, child);
+            if (spec == null || child.getVisibility() != View.VISIBLE) {
+                continue;
+            }
+            final int left = Math.round(child.getLeft() + ViewCompat.getTranslationX(child));
+            final int top = Math.round(child.getTop() + ViewCompat.getTranslationY(child));
+            mCards[count * 4] = left;
+            mCards[count * 4 + 1] = top;
+            mCards[count * 4 + 2] = left + child.getWidth();
+            mCards[count * 4 + 3] = top + child.getHeight();
+            final Rect opaque = mOpaqueRect;
+            mOpaque[count] = getOpaqueRect(parent, child, opaque) && !opaque.isEmpty();
+            if (mOpaque[count]) {
+                mOpaqueRects[count * 4] = left + opaque.left;
+                mOpaqueRects[count * 4 + 1] = top + opaque.top;
+                mOpaqueRects[count * 4 + 2] = left + opaque.right;
+                mOpaqueRects[count * 4 + 3] = top + opaque.bottom;
+            }
+            mChildRenderers[count] = getRenderer(spec);
+            mOrder[count] = count;
+            count++;
+        }
+
+        // group the children by spec, then by size, a plain insertion sort is enough for a
+        // screenful
+        for (int i = 1; i < count; i++) {
+            final int child = mOrder[i];
+            int j = i - 1;
+            while (j >= 0 && compareChildren(mOrder[j], child) > 0) {
+                mOrder[j + 1] = mOrder[j];
+                j--;
+            }
+            mOrder[j + 1] = child;
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int child = mOrder[i];
+            final Renderer renderer = mChildRenderers[child];
+            final Rect insets = renderer.mInsets;
+            final int card = child * 4;
+            final int left = mCards[card] - insets.left;
+            final int top = mCards[card + 1] - insets.top;
+            final int right = mCards[card + 2] + insets.right;
+            final int bottom = mCards[card + 3] + insets.bottom;
+            collectOccluders(count, left, top, right, bottom);
+            renderer.mDrawable.setBounds(left, top, right, bottom);
+            renderer.mDrawable.drawShadowOnly(c, mOccluderCount > 0 ? mCuller : null);
+        }
+    }
+
+    /**
+     * Orders two children by the index of their renderer, then by width and height.
+     */
+    private int compareChildren(int a, int b) {
+        final int indexA = mChildRenderers[a].mIndex;
+        final int indexB = mChildRenderers[b].mIndex;
+        if (indexA != indexB) {
+            return indexA < indexB ? -1 : 1;
+        }
+        final int[] cards = mCards;
+        final int widthA = cards[a * 4 + 2] - cards[a * 4];
+        final int widthB = cards[b * 4 + 2] - cards[b * 4];
+        if (widthA != widthB) {
+            return widthA < widthB ? -1 : 1;
+        }
+        final int heightA = cards[a * 4 + 3] - cards[a * 4 + 1];
+        final int heightB = cards[b * 4 + 3] - cards[b * 4 + 1];
+        return heightA < heightB ? -1 : (heightA == heightB ? 0 : 1);
+    }
+
+    /**
+     * Collects the cards whose opaque part overlaps the given shadow bounds. The child's own
+     * card counts too: the decoration draws no body, but the child's opaque background hides
+     * the shadow beneath it, such as the center slice of a nine-patch shadow.
+     */
+    private void collectOccluders(int count, int left, int top, int right, int bottom) {
+        final int[] cards = mOpaqueRects;
+        mOccluderCount = 0;
+        for (int other = 0; other < count; other++) {
+            final int card = other * 4;
+            if (!mOpaque[other] || cards[card] >= right
+                    || cards[card + 2] <= left || cards[card + 1] >= bottom
+                    || cards[card + 3] <= top) {
+                continue;
+            }
+            if (mOccluderCount == mOccluders.length) {
+                final int[] occluders = new int[mOccluderCount * 2];
+                System.arraycopy(mOccluders, 0, occluders, 0, mOccluderCount);
+                mOccluders = occluders;
+            }
+            mOccluders[mOccluderCount++] = other;
+        }
+    }
+
+    private void ensureCapacity(int childCount) {
+        if (mOrder.length >= childCount) {
+            return;
+        }
+        final int capacity = Math.max(childCount, mOrder.length * 2);
+        mCards = new int[capacity * 4];
+        mOpaqueRects = new int[capacity * 4];
+        mOpaque = new boolean[capacity];
+        mChildRenderers = new Renderer[capacity];
+        mOrder = new int[capacity];
+    }
+
+    /**
+     * Draws all shadows of one spec: a drawable whose bounds are moved from card to card, so
+     * cards of the same size reuse its compiled geometry.
+     */
+    private static final class Renderer {
+
+        final RoundRectDrawableWithShadow mDrawable;
+
+        // room for the shadow around the card
+        final Rect mInsets = new Rect();
+
+        // sort key, in order of first use
+        final int mIndex;
+
+        Renderer(Resources resources, CardShadowSpec spec, int index) {
+            mDrawable = new RoundRectDrawableWithShadow(resources, Color.TRANSPARENT, 0,
+                    spec.mShadowSize, spec.mMaxShadowSize);
+            mDrawable.setSpec(spec);
+            mDrawable.getShadowInsets(mInsets);
+            mIndex = index;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.res.Resources;
+import android.graphics.Rect;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Content padding and minimum size of a card drawn by {@link RoundRectDrawableWithShadow},
+ * computed once per spec. Lets measure passes, and layout prefetch on other threads, size cards
+ * without creating drawables.
+ * <p>
+ * Immutable, and {@link #get(Resources, CardShadowSpec, boolean)} is thread safe.
+ */
+public final class ShadowMetrics {
+
+    /**
+     * Number of distinct specs whose metrics are kept.
+     */
+    static final int MAX_CACHED_METRICS = 64;
+
+    private static final LruCache<Key, ShadowMetrics> sCache =
+            new LruCache<Key, ShadowMetrics>(MAX_CACHED_METRICS);
+
+    // reusable lookup key, guarded by the class lock
+    private static final Key sLookupKey = new Key();
+
+    private final int mPaddingLeft;
+
+    private final int mPaddingTop;
+
+    private final int mPaddingRight;
+
+    private final int mPaddingBottom;
+
+    private final float mMinWidth;
+
+    private final float mMinHeight;
+
+    private ShadowMetrics(int paddingLeft, int paddingTop, int paddingRight, int paddingBottom,
+            float minWidth, float minHeight) {
+        mPaddingLeft = paddingLeft;
+        mPaddingTop = paddingTop;
+        mPaddingRight = paddingRight;
+        mPaddingBottom = paddingBottom;
+        mMinWidth = minWidth;
+        mMinHeight = minHeight;
+    }
+
+    /**
+     * Returns the metrics of a drawable created with the given resources and set up with the
+     * spec and {@link RoundRectDrawableWithShadow#setAddPaddingForCorners(boolean)}.
+     */
+    public static synchronized ShadowMetrics get(Resources resources, CardShadowSpec spec,
+            boolean addPaddingForCorners) {
+        final int insetShadow = ShadowResources.get(resources).mInsetShadow;
+        // only the fields the metrics read, rounded the same way the drawable rounds them, so
+        // specs differing in colors or shadow size share their metrics
+        final Key key = sLookupKey.set(spec.mCornerRadii, spec.mShadowEdges,
+                RoundRectDrawableWithShadow.toEven(spec.mMaxShadowSize), insetShadow,
+                addPaddingForCorners);
+        ShadowMetrics metrics = sCache.get(key);
+        if (metrics == null) {
+            metrics = compute(key.mCornerRadii, key.mShadowEdges, key.mRawMaxShadowSize,
+                    insetShadow, addPaddingForCorners);
+            sCache.put(new Key(key), metrics);
+        }
+        return metrics;
+    }
+
+    static ShadowMetrics compute(float[] cornerRadii, int shadowEdges, float rawMaxShadowSize,
+            int insetShadow, boolean addPaddingForCorners) {
+        final float[] radii = cornerRadii;
+        // edges without a shadow only pad for their corners
+        final float left = (shadowEdges & RoundRectDrawableWithShadow.EDGE_LEFT) != 0
+                ? rawMaxShadowSize : 0;
+        final float top = (shadowEdges & RoundRectDrawableWithShadow.EDGE_TOP) != 0
+                ? rawMaxShadowSize : 0;
+        final float right = (shadowEdges & RoundRectDrawableWithShadow.EDGE_RIGHT) != 0
+                ? rawMaxShadowSize : 0;
+        final float bottom = (shadowEdges & RoundRectDrawableWithShadow.EDGE_BOTTOM) != 0
+                ? rawMaxShadowSize : 0;
+        final float topLeft = radii[RoundRectDrawableWithShadow.CORNER_TOP_LEFT];
+        final float topRight = radii[RoundRectDrawableWithShadow.CORNER_TOP_RIGHT];
+        final float bottomRight = radii[RoundRectDrawableWithShadow.CORNER_BOTTOM_RIGHT];
+        final float bottomLeft = radii[RoundRectDrawableWithShadow.CORNER_BOTTOM_LEFT];
+        final float maxRadius = Math.max(Math.max(topLeft, topRight),
+                Math.max(bottomRight, bottomLeft));
+
+        final float multiplier = RoundRectDrawableWithShadow.SHADOW_MULTIPLIER;
+        final float minContentWidth = 2 * Math.max(rawMaxShadowSize,
+                maxRadius + insetShadow + rawMaxShadowSize / 2);
+        final float minContentHeight = 2 * Math.max(rawMaxShadowSize,
+                maxRadius + insetShadow + rawMaxShadowSize * multiplier / 2);
+        // the card is only offset from the edges casting a shadow, as for the padding
+        final float hOffsets = sideOffset(left, insetShadow) + sideOffset(right, insetShadow);
+        final float vOffsets = sideOffset(top * multiplier, insetShadow)
+                + sideOffset(bottom * multiplier, insetShadow);
+        return new ShadowMetrics(
+                (int) Math.ceil(RoundRectDrawableWithShadow.calculateHorizontalPadding(left,
+                        Math.max(topLeft, bottomLeft), addPaddingForCorners)),
+                (int) Math.ceil(RoundRectDrawableWithShadow.calculateVerticalPadding(top,
+                        Math.max(topLeft, topRight), addPaddingForCorners)),
+                (int) Math.ceil(RoundRectDrawableWithShadow.calculateHorizontalPadding(right,
+                        Math.max(topRight, bottomRight), addPaddingForCorners)),
+                (int) Math.ceil(RoundRectDrawableWithShadow.calculateVerticalPadding(bottom,
+                        Math.max(bottomLeft, bottomRight), addPaddingForCorners)),
+                minContentWidth + hOffsets,
+                minContentHeight + vOffsets);
+    }
+
+    private static float sideOffset(float shadowSize, int insetShadow) {
+        return shadowSize > 0 ? shadowSize + insetShadow : 0;
+    }
+
+    /**
+     * Sets the rect to the content padding, see
+     * {@link RoundRectDrawableWithShadow#getPadding(Rect)}.
+     */
+    public void getPadding(Rect outPadding) {
+        outPadding.set(mPaddingLeft, mPaddingTop, mPaddingRight, mPaddingBottom);
+    }
+
+    public int getPaddingLeft() {
+        return mPaddingLeft;
+    }
+
+    public int getPaddingTop() {
+        return mPaddingTop;
+    }
+
+    public int getPaddingRight() {
+        return mPaddingRight;
+    }
+
+    public int getPaddingBottom() {
+        return mPaddingBottom;
+    }
+
+    /**
+     * The smallest width the card and its shadow can be drawn at.
+     */
+    public float getMinWidth() {
+        return mMinWidth;
+    }
+
+    /**
+     * The smallest height the card and its shadow can be drawn at.
+     */
+    public float getMinHeight() {
+        return mMinHeight;
+    }
+
+    static synchronized void clearCache() {
+        sCache.evictAll();
+    }
+
+    private static final class Key {
+
+        final float[] mCornerRadii = new float[4];
+
+        int mShadowEdges;
+
+        float mRawMaxShadowSize;
+
+        int mInsetShadow;
+
+        boolean mAddPaddingForCorners;
+
+        Key() {
+        }
+
+        Key(Key orig) {
+            System.arraycopy(orig.mCornerRadii, 0, mCornerRadii, 0, 4);
+            mShadowEdges = orig.mShadowEdges;
+            mRawMaxShadowSize = orig.mRawMaxShadowSize;
+            mInsetShadow = orig.mInsetShadow;
+            mAddPaddingForCorners = orig.mAddPaddingForCorners;
+        }
+
+        Key set(float[] cornerRadii, int shadowEdges, float rawMaxShadowSize, int insetShadow,
+                boolean addPaddingForCorners) {
+            for (int corner = 0; corner < 4; corner++) {
+                mCornerRadii[corner] = (int) (cornerRadii[corner] + .5f);
+            }
+            mShadowEdges = shadowEdges;
+            mRawMaxShadowSize = rawMaxShadowSize;
+            mInsetShadow = insetShadow;
+            mAddPaddingForCorners = addPaddingForCorners;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mShadowEdges == other.mShadowEdges
+                    && Float.compare(mRawMaxShadowSize, other.mRawMaxShadowSize) == 0
+                    && mInsetShadow == other.mInsetShadow
+                    && mAddPaddingForCorners == other.mAddPaddingForCorners
+                    && Arrays.equals(mCornerRadii, other.mCornerRadii);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Arrays.hashCode(mCornerRadii);
+            hash = 31 * hash + mShadowEdges;
+            hash = 31 * hash + Float.floatToIntBits(mRawMaxShadowSize);
+            hash = 31 * hash + mInsetShadow;
+            hash = 31 * hash + (mAddPaddingForCorners ? 1 : 0);
+            return hash;
+        }
+    }
+}
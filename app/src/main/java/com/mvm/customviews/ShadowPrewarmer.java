@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.res.Resources;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Builds the shadows of known card specs in the background, so that the first draw of a new
+ * screen finds them in the caches instead of building them on the UI thread.
+ * <p>
+ * Drawables never wait for a pre-warm: a spec that isn't ready yet is built by the drawable as
+ * usual.
+ */
+public final class ShadowPrewarmer {
+
+    private static Executor sExecutor;
+
+    private ShadowPrewarmer() {
+    }
+
+    /**
+     * Pre-warms the specs on a shared low priority background thread.
+     */
+    public static void prewarm(Resources resources, Collection<CardShadowSpec> specs,
+            boolean ninePatchShadow) {
+        prewarm(resources, specs, ninePatchShadow, getExecutor());
+    }
+
+    /**
+     * Pre-warms the shadow paths and shaders of the specs, and with ninePatchShadow also their
+     * nine-patch bitmaps, see {@link RoundRectDrawableWithShadow#setNinePatchShadow(boolean)}.
+     * The cardview resources are read on the executor as well.
+     */
+    public static void prewarm(final Resources resources, Collection<CardShadowSpec> specs,
+            final boolean ninePatchShadow, Executor executor) {
+        final ArrayList<CardShadowSpec> pending = new ArrayList<CardShadowSpec>(specs);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (CardShadowSpec spec : pending) {
+                    RoundRectDrawableWithShadow.prepare(resources, spec, ninePatchShadow);
+                }
+            }
+        });
+    }
+
+    static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "ShadowPrewarmer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.res.Resources;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Shadow colors and inset read from the cardview resources, remembered for the last
+ * {@link Resources} so that creating drawables doesn't look them up every time.
+ */
+final class ShadowResources {
+
+    private static ShadowResources sLast;
+
+    private final WeakReference<Resources> mResources;
+
+    // the Resources object is updated in place on configuration changes
+    private final int mDensityDpi;
+
+    final int mShadowStartColor;
+
+    final int mShadowEndColor;
+
+    final int mInsetShadow;
+
+    private ShadowResources(Resources resources) {
+        mResources = new WeakReference<Resources>(resources);
+        mDensityDpi = resources.getDisplayMetrics().densityDpi;
+        mShadowStartColor = resources.getColor(
+                android.support.v7.cardview.R.color.cardview_shadow_start_color);
+        mShadowEndColor = resources.getColor(
+                android.support.v7.cardview.R.color.cardview_shadow_end_color);
+        mInsetShadow = resources.getDimensionPixelSize(
+                android.support.v7.cardview.R.dimen.cardview_compat_inset_shadow);
+    }
+
+    static synchronized ShadowResources get(Resources resources) {
+        final ShadowResources last = sLast;
+        if (last == null || last.mResources.get() != resources
+                || last.mDensityDpi != resources.getDisplayMetrics().densityDpi) {
+            sLast = new ShadowResources(resources);
+        }
+        return sLast;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.os.SystemClock;
+import android.view.animation.Interpolator;
+
+/**
+ * Interpolates the shadow size of a drawable and the matching scale of its precomputed shadow,
+ * see {@link RoundRectDrawableWithShadow#animateShadowSize}. Allocated once per drawable and
+ * reused by later animations.
+ */
+final class ShadowSizeAnimation implements Runnable {
+
+    // delay between two frames
+    static final long FRAME_DELAY = 1000 / 60;
+
+    private final RoundRectDrawableWithShadow mDrawable;
+
+    // shadow of the larger of the two sizes, drawn less deep for smaller sizes
+    ShadowAssets mAssets;
+
+    float mFrom;
+
+    float mTo;
+
+    private Interpolator mInterpolator;
+
+    private long mDuration;
+
+    private long mStartTime;
+
+    boolean mRunning;
+
+    // current raw shadow size, and how much less deep than mAssets it is drawn
+    float mRawShadowSize;
+
+    float mShrink;
+
+    ShadowSizeAnimation(RoundRectDrawableWithShadow drawable) {
+        mDrawable = drawable;
+    }
+
+    /**
+     * Sets the sizes to animate between. Returns true if mAssets have to be looked up again,
+     * since the assets of a running animation serve any size up to the larger of its sizes.
+     */
+    boolean retarget(float from, float to) {
+        final boolean deeper = !mRunning || to > Math.max(mFrom, mTo);
+        mFrom = from;
+        mTo = to;
+        return deeper;
+    }
+
+    /**
+     * Starts animating from the current time and draws the first frame.
+     *
+     * @param interpolator the interpolator to use, or null for a linear animation
+     */
+    void start(long duration, Interpolator interpolator) {
+        mInterpolator = interpolator;
+        mDuration = duration;
+        mStartTime = SystemClock.uptimeMillis();
+        if (mRunning) {
+            // the next frame comes from the run() below
+            mDrawable.unscheduleSelf(this);
+        }
+        mRunning = true;
+        run();
+    }
+
+    /**
+     * Stops scheduling frames, leaving the shadow size to the drawable.
+     */
+    void stop() {
+        mRunning = false;
+        mDrawable.unscheduleSelf(this);
+    }
+
+    @Override
+    public void run() {
+        if (!mRunning) {
+            return;
+        }
+        final RoundRectDrawableWithShadow drawable = mDrawable;
+        final long now = SystemClock.uptimeMillis();
+        final float t = Math.min(1f, (now - mStartTime) / (float) mDuration);
+        final float fraction = mInterpolator == null ? t : mInterpolator.getInterpolation(t);
+        mRawShadowSize = Math.max(0f, mFrom + (mTo - mFrom) * fraction);
+
+        final float shadowSize = mRawShadowSize * RoundRectDrawableWithShadow.SHADOW_MULTIPLIER
+                + drawable.mState.mInsetShadow;
+        mShrink = Math.max(0f, mAssets.mSpec.mShadowSize - shadowSize);
+        // only moves the corner origins, the paths and shaders stay the same
+        drawable.compileShadowLayers(drawable.mCardBounds, mAssets, mRawShadowSize);
+
+        if (t >= 1f) {
+            drawable.stopShadowAnimation(mTo);
+        } else {
+            drawable.scheduleSelf(this, now + FRAME_DELAY);
+            drawable.invalidateSelf();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Renders cards into bitmaps, for shared element transitions and app widgets, on any thread.
+ * <p>
+ * Snapshot bitmaps come from a pool: give them back with {@link #release(Bitmap)} once they
+ * are no longer needed, and later snapshots of a similar size reuse them instead of allocating.
+ * On API 19+ sizes are rounded up to buckets and pooled bitmaps are reconfigured to the exact
+ * size, before that a bitmap is only reused for its own size.
+ */
+public final class ShadowSnapshots {
+
+    /**
+     * Default byte budget of the pool.
+     */
+    public static final int DEFAULT_MAX_POOL_BYTES = 4 * 1024 * 1024;
+
+    // sizes are rounded up to multiples of this, on API 19+
+    private static final int BUCKET_SIZE = 32;
+
+    private static final boolean sCanReconfigure =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    // pooled bitmaps by bucket, see getBucket()
+    private static final HashMap<Long, ArrayList<Bitmap>> sPool =
+            new HashMap<Long, ArrayList<Bitmap>>();
+
+    private static int sPoolBytes;
+
+    private static int sMaxPoolBytes = DEFAULT_MAX_POOL_BYTES;
+
+    // one canvas per rendering thread, pointed at each snapshot in turn
+    private static final ThreadLocal<Canvas> sCanvas = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            return new Canvas();
+        }
+    };
+
+    /**
+     * Receives a snapshot rendered on an executor, on the executor's thread.
+     */
+    public interface Callback {
+        void onSnapshot(Bitmap snapshot);
+    }
+
+    private ShadowSnapshots() {
+    }
+
+    /**
+     * Renders the drawable at the given size into a pooled bitmap, on the calling thread.
+     */
+    public static Bitmap render(RoundRectDrawableWithShadow drawable, int width, int height) {
+        checkSize(width, height);
+        return draw(copy(drawable), width, height);
+    }
+
+    /**
+     * Renders the drawable at the given size into a pooled bitmap on the executor. The drawable
+     * is copied right away on the calling thread, which must be the one that uses it, so it can
+     * keep changing meanwhile. Any number of snapshots may render in parallel.
+     */
+    public static void render(RoundRectDrawableWithShadow drawable, final int width,
+            final int height, Executor executor, final Callback callback) {
+        checkSize(width, height);
+        final RoundRectDrawableWithShadow copy = copy(drawable);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSnapshot(draw(copy, width, height));
+            }
+        });
+    }
+
+    /**
+     * Like {@link #render(RoundRectDrawableWithShadow, int, int, Executor, Callback)}, on the
+     * shared low priority background thread of {@link ShadowPrewarmer}.
+     */
+    public static void render(RoundRectDrawableWithShadow drawable, int width, int height,
+            Callback callback) {
+        render(drawable, width, height, ShadowPrewarmer.getExecutor(), callback);
+    }
+
+    /**
+     * Returns a drawable that draws like the given one in full detail and shares nothing
+     * mutable with it, so that it can be drawn on another thread. Must be called on the thread
+     * that uses the drawable.
+     */
+    static RoundRectDrawableWithShadow copy(RoundRectDrawableWithShadow drawable) {
+        final RoundRectDrawableWithShadow copy = new RoundRectDrawableWithShadow(
+                new RoundRectDrawableWithShadow.ShadowState(drawable.mState));
+        copy.mIgnoreGlobalDetailLevel = true;
+        // a snapshot is drawn once, so caching its shadow only costs a bitmap
+        copy.mState.mCachedShadowLayer = false;
+        copy.setAlpha(drawable.getAlpha());
+        copy.setColorFilter(drawable.mColorFilter);
+        // picks the state table entry, if any
+        copy.setState(drawable.getState().clone());
+        return copy;
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid snapshot size");
+        }
+    }
+
+    private static Bitmap draw(RoundRectDrawableWithShadow drawable, int width, int height) {
+        final Bitmap bitmap = obtain(width, height);
+        final Canvas canvas = sCanvas.get();
+        canvas.setBitmap(bitmap);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // don't hold on to the bitmap once it is released and reconfigured
+            canvas.setBitmap(null);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a cleared bitmap of the given size, from the pool if it has one.
+     */
+    private static Bitmap obtain(int width, int height) {
+        Bitmap bitmap = null;
+        synchronized (ShadowSnapshots.class) {
+            final ArrayList<Bitmap> bucket = sPool.get(getBucket(width, height));
+            if (bucket != null && !bucket.isEmpty()) {
+                bitmap = bucket.remove(bucket.size() - 1);
+                sPoolBytes -= getPooledBytes(bitmap);
+            }
+        }
+        if (bitmap == null) {
+            if (sCanReconfigure) {
+                bitmap = Bitmap.createBitmap(roundUp(width), roundUp(height),
+                        Bitmap.Config.ARGB_8888);
+            } else {
+                return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+        }
+        if (sCanReconfigure && !reconfigure(bitmap, width, height)) {
+            // released but not a snapshot, too small for its bucket
+            bitmap = Bitmap.createBitmap(roundUp(width), roundUp(height),
+                    Bitmap.Config.ARGB_8888);
+            reconfigure(bitmap, width, height);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Gives a snapshot back to the pool. The bitmap must not be used afterwards.
+     */
+    public static void release(Bitmap snapshot) {
+        if (snapshot.isRecycled() || !snapshot.isMutable()) {
+            return;
+        }
+        final int bytes = getPooledBytes(snapshot);
+        synchronized (ShadowSnapshots.class) {
+            if (sPoolBytes + bytes > sMaxPoolBytes) {
+                // left to the garbage collector
+                return;
+            }
+            final Long key = getBucket(snapshot.getWidth(), snapshot.getHeight());
+            ArrayList<Bitmap> bucket = sPool.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Bitmap>();
+                sPool.put(key, bucket);
+            }
+            bucket.add(snapshot);
+            sPoolBytes += bytes;
+        }
+    }
+
+    /**
+     * Sets the byte budget of the pool, dropping the pooled bitmaps.
+     */
+    public static synchronized void setMaxPoolBytes(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("invalid pool size");
+        }
+        sMaxPoolBytes = maxBytes;
+        clearPool();
+    }
+
+    public static synchronized int getPoolBytes() {
+        return sPoolBytes;
+    }
+
+    public static synchronized void clearPool() {
+        sPool.clear();
+        sPoolBytes = 0;
+    }
+
+    /**
+     * Shrinks the pool according to a {@link ComponentCallbacks2} trim level, at the same levels
+     * as {@link ShadowBitmapCache#onTrimMemory(int)}. Register {@link ShadowTrimCallbacks} to
+     * have this called automatically.
+     */
+    public static synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            clearPool();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(sMaxPoolBytes / 4);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToSize(sMaxPoolBytes / 2);
+        }
+    }
+
+    /**
+     * Drops pooled bitmaps until the pool holds at most the given number of bytes. Must hold
+     * the class lock.
+     */
+    private static void trimToSize(int maxBytes) {
+        final Iterator<ArrayList<Bitmap>> buckets = sPool.values().iterator();
+        while (sPoolBytes > maxBytes && buckets.hasNext()) {
+            final ArrayList<Bitmap> bucket = buckets.next();
+            while (sPoolBytes > maxBytes && !bucket.isEmpty()) {
+                sPoolBytes -= getPooledBytes(bucket.remove(bucket.size() - 1));
+            }
+        }
+    }
+
+    private static Long getBucket(int width, int height) {
+        if (sCanReconfigure) {
+            width = roundUp(width);
+            height = roundUp(height);
+        }
+        return ((long) width << 32) | height;
+    }
+
+    private static int roundUp(int size) {
+        return (size + BUCKET_SIZE - 1) / BUCKET_SIZE * BUCKET_SIZE;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getPooledBytes(Bitmap bitmap) {
+        if (sCanReconfigure) {
+            return bitmap.getAllocationByteCount();
+        }
+        // getByteCount() is API 12+
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * @return false if the bitmap is too small for the given size
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean reconfigure(Bitmap bitmap, int width, int height) {
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return true;
+        }
+        if (bitmap.getAllocationByteCount() < 4 * width * height) {
+            return false;
+        }
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        return true;
+    }
+}
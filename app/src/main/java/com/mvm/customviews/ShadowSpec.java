@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import java.util.Arrays;
+
+/**
+ * Everything the corner paths and shaders of a {@link RoundRectDrawableWithShadow} depend on.
+ * <p>
+ * Two drawables with equal specs use identical assets, so the spec is used as the key of the
+ * process-wide {@link ShadowAssets} cache. The shadow edges, the inset and the offsets of the
+ * layers only move the compiled ops around, so they are left out and cards differing only in
+ * those share their assets.
+ * <p>
+ * Drawables keep one mutable spec around to look up the cache without allocating; only copies
+ * made with {@link #ShadowSpec(ShadowSpec)} are ever stored as keys, and those are never modified.
+ */
+final class ShadowSpec {
+
+    // clockwise from the top left, see RoundRectDrawableWithShadow.CORNER_TOP_LEFT
+    final float[] mCornerRadii = new float[4];
+
+    // multiplied value to account for shadow offset
+    float mShadowSize;
+
+    int mShadowStartColor;
+
+    int mShadowEndColor;
+
+    // ambient layer drawn below the shadow, none while both colors are 0
+    int mAmbientShadowStartColor;
+
+    int mAmbientShadowEndColor;
+
+    // Gaussian instead of linear shadow gradients
+    boolean mGaussianFalloff;
+
+    // pills and circles, whose shadow is drawn as rings, see setRoundShape()
+    static final int ROUND_NONE = 0;
+    static final int ROUND_PILL = 1;
+    static final int ROUND_CIRCLE = 2;
+
+    int mRoundShape;
+
+    private int mHash;
+
+    ShadowSpec() {
+    }
+
+    ShadowSpec(ShadowSpec orig) {
+        set(orig.mCornerRadii, orig.mShadowSize, orig.mShadowStartColor, orig.mShadowEndColor);
+        setAmbientColors(orig.mAmbientShadowStartColor, orig.mAmbientShadowEndColor);
+        setGaussianFalloff(orig.mGaussianFalloff);
+        if (orig.mRoundShape != ROUND_NONE) {
+            setRoundShape(orig.mRoundShape, orig.mCornerRadii[0]);
+        }
+    }
+
+    ShadowSpec set(float[] cornerRadii, float shadowSize, int shadowStartColor,
+            int shadowEndColor) {
+        System.arraycopy(cornerRadii, 0, mCornerRadii, 0, 4);
+        mShadowSize = shadowSize;
+        mShadowStartColor = shadowStartColor;
+        mShadowEndColor = shadowEndColor;
+        mRoundShape = ROUND_NONE;
+        rehash();
+        return this;
+    }
+
+    /**
+     * Sets the colors of the ambient layer, see
+     * {@link RoundRectDrawableWithShadow#setShadowLayers(int, float, int, float)}.
+     */
+    ShadowSpec setAmbientColors(int ambientShadowStartColor, int ambientShadowEndColor) {
+        mAmbientShadowStartColor = ambientShadowStartColor;
+        mAmbientShadowEndColor = ambientShadowEndColor;
+        rehash();
+        return this;
+    }
+
+    ShadowSpec setGaussianFalloff(boolean gaussianFalloff) {
+        mGaussianFalloff = gaussianFalloff;
+        rehash();
+        return this;
+    }
+
+    /**
+     * Makes the spec the shadow of a pill or circle: every corner gets the given ring radius,
+     * the radius of the inner outline of the shadow around the caps.
+     */
+    ShadowSpec setRoundShape(int roundShape, float ringRadius) {
+        mRoundShape = roundShape;
+        Arrays.fill(mCornerRadii, ringRadius);
+        rehash();
+        return this;
+    }
+
+    boolean hasAmbientShadow() {
+        return mAmbientShadowStartColor != 0 || mAmbientShadowEndColor != 0;
+    }
+
+    private void rehash() {
+        int hash = 0;
+        for (float radius : mCornerRadii) {
+            hash = 31 * hash + Float.floatToIntBits(radius);
+        }
+        hash = 31 * hash + Float.floatToIntBits(mShadowSize);
+        hash = 31 * hash + mShadowStartColor;
+        hash = 31 * hash + mShadowEndColor;
+        hash = 31 * hash + mAmbientShadowStartColor;
+        hash = 31 * hash + mAmbientShadowEndColor;
+        hash = 31 * hash + (mGaussianFalloff ? 1 : 0);
+        hash = 31 * hash + mRoundShape;
+        mHash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShadowSpec)) {
+            return false;
+        }
+        ShadowSpec other = (ShadowSpec) o;
+        return mHash == other.mHash
+                && Arrays.equals(mCornerRadii, other.mCornerRadii)
+                && Float.floatToIntBits(mShadowSize) == Float.floatToIntBits(other.mShadowSize)
+                && mShadowStartColor == other.mShadowStartColor
+                && mShadowEndColor == other.mShadowEndColor
+                && mAmbientShadowStartColor == other.mAmbientShadowStartColor
+                && mAmbientShadowEndColor == other.mAmbientShadowEndColor
+                && mGaussianFalloff == other.mGaussianFalloff
+                && mRoundShape == other.mRoundShape;
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Opt-in counters of the work done by {@link RoundRectDrawableWithShadow}s, kept per drawable
+ * and for the whole process, along with {@link Trace} sections around drawing and rebuilds.
+ * <p>
+ * Disabled by default, in which case drawables only check {@link #isEnabled()} and record
+ * nothing. Counters are only updated while enabled, so they cover the enabled periods only.
+ */
+public final class ShadowStats {
+
+    /**
+     * Upper bounds of the draw time histogram buckets, in nanoseconds. The last bucket holds
+     * every longer draw.
+     */
+    private static final long[] DRAW_TIME_BOUNDS = {
+            50000, 100000, 250000, 500000, 1000000, 2000000, 4000000, 8000000, Long.MAX_VALUE};
+
+    public static final int DRAW_TIME_BUCKETS = DRAW_TIME_BOUNDS.length;
+
+    private static final boolean sTraceAvailable =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    static boolean sEnabled;
+
+    private static final ShadowStats sGlobal = new ShadowStats();
+
+    private static Listener sListener;
+
+    /**
+     * Notified after every draw recorded while stats are enabled, on the drawing thread.
+     */
+    public interface Listener {
+        void onDraw(RoundRectDrawableWithShadow drawable, ShadowStats drawableStats,
+                long durationNanos);
+    }
+
+    private long mRebuilds;
+
+    private long mShaderCreations;
+
+    private long mDraws;
+
+    private long mDrawCalls;
+
+    private long mCulledOps;
+
+    private long mSaveRestores;
+
+    private long mScalePairs;
+
+    private long mDrawTimeNanos;
+
+    private final long[] mDrawTimeHistogram = new long[DRAW_TIME_BUCKETS];
+
+    ShadowStats() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static synchronized void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Returns a copy of the process-wide counters.
+     */
+    public static ShadowStats getGlobal() {
+        return sGlobal.snapshot();
+    }
+
+    public static void resetGlobal() {
+        sGlobal.reset();
+    }
+
+    /**
+     * Returns the upper bound of a draw time histogram bucket, in nanoseconds.
+     */
+    public static long getDrawTimeBucketBound(int bucket) {
+        return DRAW_TIME_BOUNDS[bucket];
+    }
+
+    public synchronized ShadowStats snapshot() {
+        final ShadowStats copy = new ShadowStats();
+        copy.mRebuilds = mRebuilds;
+        copy.mShaderCreations = mShaderCreations;
+        copy.mDraws = mDraws;
+        copy.mDrawCalls = mDrawCalls;
+        copy.mCulledOps = mCulledOps;
+        copy.mSaveRestores = mSaveRestores;
+        copy.mScalePairs = mScalePairs;
+        copy.mDrawTimeNanos = mDrawTimeNanos;
+        System.arraycopy(mDrawTimeHistogram, 0, copy.mDrawTimeHistogram, 0, DRAW_TIME_BUCKETS);
+        return copy;
+    }
+
+    public synchronized void reset() {
+        mRebuilds = 0;
+        mShaderCreations = 0;
+        mDraws = 0;
+        mDrawCalls = 0;
+        mCulledOps = 0;
+        mSaveRestores = 0;
+        mScalePairs = 0;
+        mDrawTimeNanos = 0;
+        for (int i = 0; i < DRAW_TIME_BUCKETS; i++) {
+            mDrawTimeHistogram[i] = 0;
+        }
+    }
+
+    /**
+     * Number of times the card and shadow geometry were rebuilt.
+     */
+    public synchronized long getRebuilds() {
+        return mRebuilds;
+    }
+
+    /**
+     * Number of gradient shaders created for shadow assets.
+     */
+    public synchronized long getShaderCreations() {
+        return mShaderCreations;
+    }
+
+    public synchronized long getDraws() {
+        return mDraws;
+    }
+
+    /**
+     * Number of canvas draw calls issued by all draws.
+     */
+    public synchronized long getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Number of draw ops left out by all draws, because they were outside the clip or hidden by
+     * other cards.
+     */
+    public synchronized long getCulledOps() {
+        return mCulledOps;
+    }
+
+    /**
+     * Number of canvas save/restore pairs issued by all draws. Draw ops only translate the
+     * canvas, so this stays 0.
+     */
+    public synchronized long getSaveRestores() {
+        return mSaveRestores;
+    }
+
+    /**
+     * Number of canvas scale and inverse scale pairs issued by all draws, one per shadow op
+     * shrunk while the shadow size animates.
+     */
+    public synchronized long getScalePairs() {
+        return mScalePairs;
+    }
+
+    public synchronized long getDrawTimeNanos() {
+        return mDrawTimeNanos;
+    }
+
+    /**
+     * Number of draws whose duration fell into the given bucket, see
+     * {@link #getDrawTimeBucketBound(int)}.
+     */
+    public synchronized long getDrawTimeCount(int bucket) {
+        return mDrawTimeHistogram[bucket];
+    }
+
+    static void recordRebuild(ShadowStats stats) {
+        synchronized (stats) {
+            stats.mRebuilds++;
+        }
+        synchronized (sGlobal) {
+            sGlobal.mRebuilds++;
+        }
+    }
+
+    /**
+     * @param stats the drawable the shaders were created for, or null
+     */
+    static void recordShaderCreations(ShadowStats stats, int count) {
+        if (stats != null) {
+            synchronized (stats) {
+                stats.mShaderCreations += count;
+            }
+        }
+        synchronized (sGlobal) {
+            sGlobal.mShaderCreations += count;
+        }
+    }
+
+    static void recordDraw(RoundRectDrawableWithShadow drawable, ShadowStats stats,
+            long durationNanos, int drawCalls, int culledOps, int saveRestores,
+            int scalePairs) {
+        stats.addDraw(durationNanos, drawCalls, culledOps, saveRestores, scalePairs);
+        sGlobal.addDraw(durationNanos, drawCalls, culledOps, saveRestores, scalePairs);
+        final Listener listener;
+        synchronized (ShadowStats.class) {
+            listener = sListener;
+        }
+        if (listener != null) {
+            listener.onDraw(drawable, stats, durationNanos);
+        }
+    }
+
+    private synchronized void addDraw(long durationNanos, int drawCalls, int culledOps,
+            int saveRestores, int scalePairs) {
+        mDraws++;
+        mDrawCalls += drawCalls;
+        mCulledOps += culledOps;
+        mSaveRestores += saveRestores;
+        mScalePairs += scalePairs;
+        mDrawTimeNanos += durationNanos;
+        int bucket = 0;
+        while (durationNanos > DRAW_TIME_BOUNDS[bucket]) {
+            bucket++;
+        }
+        mDrawTimeHistogram[bucket]++;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void beginSection(String name) {
+        if (sTraceAvailable) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void endSection() {
+        if (sTraceAvailable) {
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+/**
+ * Forwards memory trim events to the shadow caches and the snapshot pool.
+ * <p>
+ * Kept in its own class so that {@link ComponentCallbacks2} is never loaded before API 14.
+ */
+public final class ShadowTrimCallbacks implements ComponentCallbacks2 {
+
+    private static ShadowTrimCallbacks sInstance;
+
+    private ShadowTrimCallbacks() {
+    }
+
+    /**
+     * Registers the callbacks on the application context. Does nothing before API 14 or if
+     * already registered.
+     */
+    public static synchronized void register(Context context) {
+        if (sInstance != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        sInstance = new ShadowTrimCallbacks();
+        context.getApplicationContext().registerComponentCallbacks(sInstance);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        ShadowBitmapCache.onTrimMemory(level);
+        ShadowSnapshots.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) {
+            ShadowAssets.clearCache();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
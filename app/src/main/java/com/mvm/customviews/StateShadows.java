@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mvm.customviews;
+
+import android.graphics.Bitmap;
+import android.graphics.Path;
+import android.util.StateSet;
+
+/**
+ * Built shadows of the entries of a drawable's state table, see
+ * {@link RoundRectDrawableWithShadow#setStateShadows}. The drawable builds each entry into its
+ * own shadow fields, then saves them here; selecting an entry points the fields back at its
+ * shadow without allocating.
+ */
+final class StateShadows {
+
+    private final Entry[] mEntries;
+
+    StateShadows(int count) {
+        mEntries = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            mEntries[i] = new Entry();
+        }
+    }
+
+    int size() {
+        return mEntries.length;
+    }
+
+    /**
+     * Returns the index of the first entry whose state spec matches the state set, or of the
+     * last entry if none does.
+     */
+    static int findIndex(int[][] stateSpecs, int[] stateSet) {
+        for (int i = 0; i < stateSpecs.length; i++) {
+            if (StateSet.stateSetMatches(stateSpecs[i], stateSet)) {
+                return i;
+            }
+        }
+        return stateSpecs.length - 1;
+    }
+
+    /**
+     * Keeps the shadow the drawable just built for the given entry. The shadow buffers are the
+     * entry's already, see {@link #select}.
+     */
+    void save(int index, RoundRectDrawableWithShadow drawable) {
+        final Entry entry = mEntries[index];
+        entry.mAssets = drawable.mAssets;
+        entry.mTessellatedCornerPaths = drawable.mTessellatedCornerPaths;
+        entry.mShadowExcludesCard = drawable.mShadowExcludesCard;
+        entry.mShadowBitmap = drawable.mShadowBitmap;
+        entry.mShadowBitmapMargin = drawable.mShadowBitmapMargin;
+        entry.mShadowBitmapCornerLeft = drawable.mShadowBitmapCornerLeft;
+        entry.mShadowBitmapCornerRight = drawable.mShadowBitmapCornerRight;
+        entry.mShadowBitmapCornerTop = drawable.mShadowBitmapCornerTop;
+        entry.mShadowBitmapCornerBottom = drawable.mShadowBitmapCornerBottom;
+    }
+
+    /**
+     * Points the shadow fields of the drawable at the shadow of the given entry.
+     */
+    void select(int index, RoundRectDrawableWithShadow drawable) {
+        final Entry entry = mEntries[index];
+        drawable.mAssets = entry.mAssets;
+        drawable.mAmbientShadowOps = entry.mAmbientShadowOps;
+        drawable.mShadowOps = entry.mShadowOps;
+        drawable.mTessellatedCornerPaths = entry.mTessellatedCornerPaths;
+        drawable.mShadowExcludesCard = entry.mShadowExcludesCard;
+        drawable.mShadowBitmap = entry.mShadowBitmap;
+        drawable.mShadowBitmapMargin = entry.mShadowBitmapMargin;
+        drawable.mShadowBitmapCornerLeft = entry.mShadowBitmapCornerLeft;
+        drawable.mShadowBitmapCornerRight = entry.mShadowBitmapCornerRight;
+        drawable.mShadowBitmapCornerTop = entry.mShadowBitmapCornerTop;
+        drawable.mShadowBitmapCornerBottom = entry.mShadowBitmapCornerBottom;
+    }
+
+    /**
+     * Moves the shadow of every entry by the given offset.
+     */
+    void offset(int dx, int dy) {
+        for (Entry entry : mEntries) {
+            entry.mAmbientShadowOps.offset(dx, dy);
+            entry.mShadowOps.offset(dx, dy);
+        }
+    }
+
+    /**
+     * Built shadow of one entry.
+     */
+    private static final class Entry {
+
+        ShadowAssets mAssets;
+
+        final DrawOpBuffer mAmbientShadowOps = new DrawOpBuffer();
+
+        final DrawOpBuffer mShadowOps = new DrawOpBuffer();
+
+        Path[][] mTessellatedCornerPaths;
+
+        boolean mShadowExcludesCard;
+
+        Bitmap mShadowBitmap;
+
+        int mShadowBitmapMargin;
+        int mShadowBitmapCornerLeft;
+        int mShadowBitmapCornerRight;
+        int mShadowBitmapCornerTop;
+        int mShadowBitmapCornerBottom;
+    }
+}